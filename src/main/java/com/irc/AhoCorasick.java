@@ -0,0 +1,139 @@
+package com.irc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive multi-pattern matcher. All patterns are compiled into one automaton so a
+ * message is scanned once regardless of how many patterns there are.
+ *
+ * Matches only count when they sit on word boundaries, where nick characters
+ * ({@code []\`_^{|}-}) are treated as part of a word, so "bob" matches "bob: hi" but not
+ * "bobby" or "bob_".
+ */
+class AhoCorasick {
+
+    // Per state: sorted transition labels and their target states.
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    // Length of the longest pattern ending at each state (following fail links), 0 if none.
+    private final int[][] outputs;
+
+    AhoCorasick(List<String> patterns) {
+        List<Map<Character, Integer>> go = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        go.add(new TreeMap<>());
+        out.add(new ArrayList<>());
+
+        for (String pattern : patterns) {
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = Character.toLowerCase(pattern.charAt(i));
+                Integer next = go.get(state).get(c);
+                if (next == null) {
+                    next = go.size();
+                    go.add(new TreeMap<>());
+                    out.add(new ArrayList<>());
+                    go.get(state).put(c, next);
+                }
+                state = next;
+            }
+            out.get(state).add(pattern.length());
+        }
+
+        int size = go.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        fail = new int[size];
+        outputs = new int[size][];
+        for (int s = 0; s < size; s++) {
+            Map<Character, Integer> edges = go.get(s);
+            labels[s] = new char[edges.size()];
+            targets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                labels[s][i] = edge.getKey();
+                targets[s][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // Breadth-first fail links; a state inherits the outputs of its fail target.
+        Map<Integer, List<Integer>> merged = new HashMap<>();
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            List<Integer> lengths = new ArrayList<>(out.get(s));
+            lengths.addAll(merged.getOrDefault(fail[s], out.get(fail[s])));
+            merged.put(s, lengths);
+            for (int i = 0; i < labels[s].length; i++) {
+                int child = targets[s][i];
+                int f = fail[s];
+                int next;
+                while ((next = step(f, labels[s][i])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next >= 0 && next != child ? next : 0;
+                queue.add(child);
+            }
+        }
+        for (int s = 0; s < size; s++) {
+            List<Integer> lengths = merged.getOrDefault(s, out.get(s));
+            outputs[s] = lengths.stream().mapToInt(Integer::intValue).distinct().toArray();
+        }
+    }
+
+    boolean isEmpty() {
+        return labels[0].length == 0;
+    }
+
+    /** True if any pattern occurs in {@code text} as a whole word. */
+    boolean matches(CharSequence text) {
+        if (isEmpty() || text == null) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next;
+            while ((next = step(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(next, 0);
+            for (int length : outputs[state]) {
+                int start = i - length + 1;
+                if (isBoundary(text, start - 1) && isBoundary(text, i + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int step(int state, char c) {
+        int i = Arrays.binarySearch(labels[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    private static boolean isBoundary(CharSequence text, int index) {
+        if (index < 0 || index >= text.length()) {
+            return true;
+        }
+        char c = text.charAt(index);
+        return !Character.isLetterOrDigit(c) && "[]\\`_^{|}-".indexOf(c) < 0;
+    }
+}
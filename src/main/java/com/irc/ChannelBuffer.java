@@ -0,0 +1,317 @@
+package com.irc;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Per-channel message store backing one side-panel tab.
+ *
+ * Messages are held column-wise in a {@link MessageRing} and rendered to HTML only when the pane
+ * needs them; the HTML the formatter already produced is kept just for lines the pane has yet to
+ * show. Every message is recorded here, but the Swing {@link IrcPanel.ChannelPane} is only built
+ * the first time the tab is shown, and afterwards only brought up to date while it is the
+ * selected tab. {@link #applied} tracks how far the pane's document has caught up with the
+ * store, so switching back to a tab applies just the messages that arrived in the meantime.
+ * Older lines paged in from the {@link ScrollbackStore} are held on top of the normal capacity
+ * until the view is scrolled back to the bottom.
+ *
+ * A tab left alone long enough is hibernated: its pane is dropped and its lines are deflated
+ * until it is shown again. All methods must be called on the EDT.
+ */
+@Slf4j
+class ChannelBuffer {
+
+    // Most pending lines whose HTML is kept for the next sync; older ones are formatted again.
+    private static final int PENDING_HTML_LIMIT = 256;
+
+    private final String channel;
+    private final MessageRing messages = new MessageRing();
+    // HTML of the newest appended lines, while the pane has not shown them yet.
+    private final ArrayDeque<String> pendingHtml = new ArrayDeque<>();
+    // Sequence number the next appended message will get; messages currently held cover
+    // [appended - messages.size(), appended).
+    private long appended;
+    private long applied;
+    private int paged;
+    @Getter
+    @Setter
+    private boolean loading;
+    // The store has nothing older than what is already held.
+    @Getter
+    private boolean exhausted;
+    // Lines older than everything in messages, deflated while the tab hibernates.
+    private byte[] hibernated;
+    @Getter
+    private long lastShown = System.currentTimeMillis();
+
+    @Getter
+    private final JScrollPane view = new JScrollPane();
+    @Getter
+    private IrcPanel.ChannelPane pane;
+
+    ChannelBuffer(String channel) {
+        this.channel = channel;
+    }
+
+    /** Estimated heap held by this tab's lines, counting hibernated ones at their deflated size. */
+    long getBytes() {
+        return messages.getBytes() + (hibernated != null ? hibernated.length : 0);
+    }
+
+    /**
+     * @param capacity  most lines to keep, not counting paged-in history
+     * @param byteLimit this tab's share of the scrollback memory budget
+     */
+    void append(List<PanelLine> batch, int capacity, long byteLimit) {
+        for (PanelLine line : batch) {
+            messages.addLast(line.getMessage(), line.getAddress());
+            appended++;
+            if (pane != null) {
+                pendingHtml.addLast(line.getHtml());
+                if (pendingHtml.size() > PENDING_HTML_LIMIT) {
+                    pendingHtml.removeFirst();
+                }
+            }
+        }
+        trim(capacity, byteLimit);
+    }
+
+    private void trim(int capacity, long byteLimit) {
+        while (messages.size() > capacity + paged
+                || (paged == 0 && messages.getBytes() > byteLimit && messages.size() > 1)) {
+            messages.removeFirst();
+        }
+        while (pendingHtml.size() > messages.size()) {
+            pendingHtml.removeFirst();
+        }
+    }
+
+    /**
+     * Adds lines older than everything held, keeping the view where it was.
+     *
+     * @param paging whether the lines were requested by scrolling up, in which case they are
+     *               kept beyond the normal capacity until {@link #releasePaged()}
+     */
+    void prepend(List<PanelLine> older, boolean paging, IrcConfig config) {
+        if (older.isEmpty()) {
+            return;
+        }
+        for (int i = older.size() - 1; i >= 0; i--) {
+            messages.addFirst(older.get(i).getMessage(), older.get(i).getAddress());
+        }
+        if (paging) {
+            paged += older.size();
+        }
+        if (pane == null) {
+            return;
+        }
+        JScrollBar bar = view.getVerticalScrollBar();
+        int fromBottom = bar.getMaximum() - bar.getValue();
+        if (!pane.prependMessages(older)) {
+            renderAll(config);
+        }
+        SwingUtilities.invokeLater(() -> bar.setValue(bar.getMaximum() - fromBottom));
+    }
+
+    /** Lets paged-in history be trimmed again once the user is back at the latest messages. */
+    void releasePaged() {
+        paged = 0;
+    }
+
+    void setExhausted() {
+        exhausted = true;
+    }
+
+    /** Store address of the oldest stored line held, or {@link ScrollbackStore#END} if none. */
+    long oldestAddress() {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.address(i) >= 0) {
+                return messages.address(i);
+            }
+        }
+        return ScrollbackStore.END;
+    }
+
+    boolean isMaterialized() {
+        return pane != null;
+    }
+
+    boolean isHibernating() {
+        return hibernated != null;
+    }
+
+    void attach(IrcPanel.ChannelPane pane) {
+        this.pane = pane;
+        this.applied = appended - messages.size();
+        pendingHtml.clear();
+        view.setViewportView(pane);
+    }
+
+    /**
+     * Drops the pane and deflates the held lines. Lines that arrive while hibernating are kept
+     * as usual and rejoined with the older ones by {@link #wake()}.
+     */
+    void hibernate() {
+        if (hibernated != null) {
+            return;
+        }
+        if (pane != null) {
+            pane.cancelPreviewManager();
+            view.setViewportView(null);
+            pane = null;
+            pendingHtml.clear();
+        }
+        try {
+            hibernated = deflate(messages, channel);
+        } catch (IOException e) {
+            log.debug("Unable to hibernate buffer", e);
+            return;
+        }
+        messages.clear();
+        paged = 0;
+    }
+
+    /**
+     * Discards the deflated lines, keeping only what arrived while hibernating. Stored lines can
+     * still be paged back in from the {@link ScrollbackStore} once the tab is shown.
+     *
+     * @return bytes freed
+     */
+    long dropHibernated() {
+        if (hibernated == null) {
+            return 0;
+        }
+        long freed = hibernated.length;
+        hibernated = null;
+        exhausted = false;
+        return freed;
+    }
+
+    /**
+     * Restores hibernated lines ahead of anything that arrived since, then trims the oldest back
+     * to the tab's limits: lines kept while hibernating were only held to the budget on their own.
+     */
+    void wake(int capacity, long byteLimit) {
+        lastShown = System.currentTimeMillis();
+        if (hibernated == null) {
+            return;
+        }
+        List<PanelLine> older;
+        try {
+            older = inflate(hibernated, channel);
+        } catch (IOException e) {
+            log.debug("Unable to restore hibernated buffer", e);
+            older = new ArrayList<>();
+        }
+        hibernated = null;
+        for (int i = older.size() - 1; i >= 0; i--) {
+            messages.addFirst(older.get(i).getMessage(), older.get(i).getAddress());
+        }
+        trim(capacity, byteLimit);
+    }
+
+    /**
+     * Applies everything recorded since the pane was last synced. Falls back to a full render
+     * when the pane is so far behind that some of its missing lines were already trimmed.
+     */
+    void sync(IrcConfig config) {
+        lastShown = System.currentTimeMillis();
+        if (pane == null || applied == appended) {
+            return;
+        }
+        if (applied < appended - messages.size()
+                || !pane.appendMessages(render((int) (messages.size() - (appended - applied)), config), messages.size())) {
+            renderAll(config);
+        }
+        applied = appended;
+        pendingHtml.clear();
+    }
+
+    void clear() {
+        messages.clear();
+        pendingHtml.clear();
+        hibernated = null;
+        applied = appended;
+        if (pane != null) {
+            pane.clear();
+        }
+    }
+
+    private void renderAll(IrcConfig config) {
+        pane.renderAll(render(0, config));
+        applied = appended;
+        pendingHtml.clear();
+    }
+
+    /**
+     * Held lines from index {@code from} on, reusing pending HTML where there is some and
+     * formatting the rest.
+     */
+    private List<PanelLine> render(int from, IrcConfig config) {
+        List<PanelLine> lines = new ArrayList<>(messages.size() - from);
+        int formatted = messages.size() - pendingHtml.size();
+        for (int i = from; i < formatted; i++) {
+            IrcMessage message = messages.message(i, channel);
+            lines.add(new PanelLine(message, IrcPanel.ChannelPane.formatPanelMessage(message, config), messages.address(i)));
+        }
+        Iterator<String> html = pendingHtml.iterator();
+        for (int i = formatted; i < messages.size(); i++) {
+            String line = html.next();
+            if (i >= from) {
+                lines.add(new PanelLine(messages.message(i, channel), line, messages.address(i)));
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] deflate(MessageRing lines, String channel) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                IrcMessage message = lines.message(i, channel);
+                out.writeLong(lines.address(i));
+                out.writeLong(message.getTimestamp().toEpochMilli());
+                out.writeByte(message.getType().ordinal());
+                out.writeBoolean(message.isHighlight());
+                out.writeUTF(message.getSender());
+                out.writeUTF(message.getContent());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<PanelLine> inflate(byte[] data, String channel) throws IOException {
+        IrcMessage.MessageType[] types = IrcMessage.MessageType.values();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            int count = in.readInt();
+            List<PanelLine> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long address = in.readLong();
+                Instant timestamp = Instant.ofEpochMilli(in.readLong());
+                IrcMessage.MessageType type = types[in.readByte()];
+                boolean highlight = in.readBoolean();
+                IrcMessage message = new IrcMessage(channel, in.readUTF(), in.readUTF(), type, timestamp, highlight);
+                lines.add(new PanelLine(message, null, address));
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.irc;
+
+import net.runelite.client.ui.ColorScheme;
+import net.runelite.client.util.ColorUtil;
+
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.StyleSheet;
+import java.awt.Color;
+
+/**
+ * The HTML kit behind each channel pane. Images marked {@code class='thumbnail'} become
+ * {@link ThumbnailView}s, loaded through the shared preview pipeline only once they are painted;
+ * everything else renders as usual.
+ *
+ * Every pane's document links the one style sheet below, so lines name classes for their message
+ * type and IRC colors instead of carrying inline CSS that would be parsed for every element.
+ */
+class ChannelEditorKit extends HTMLEditorKit {
+
+    static final String THUMBNAIL_CLASS = "thumbnail";
+    static final String SEPARATOR_CLASS = "separator";
+    // Highest IRC color code; 99 means the default color.
+    private static final int MAX_COLOR = 98;
+
+    private static final StyleSheet STYLES = createStyles();
+
+    private final ViewFactory factory;
+
+    ChannelEditorKit(PreviewFetcher previewFetcher) {
+        this.factory = new HTMLFactory() {
+            @Override
+            public View create(Element elem) {
+                if (elem.getAttributes().getAttribute(StyleConstants.NameAttribute) == HTML.Tag.IMG
+                        && THUMBNAIL_CLASS.equals(elem.getAttributes().getAttribute(HTML.Attribute.CLASS))) {
+                    return new ThumbnailView(elem, previewFetcher);
+                }
+                return super.create(elem);
+            }
+        };
+    }
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return factory;
+    }
+
+    @Override
+    public StyleSheet getStyleSheet() {
+        return STYLES;
+    }
+
+    /**
+     * Class of a line of the given type.
+     */
+    static String typeClass(IrcMessage.MessageType type) {
+        switch (type) {
+            case SYSTEM:
+            case NICK_CHANGE:
+            case KICK:
+            case MODE:
+                return "system";
+            case JOIN:
+                return "join";
+            case PART:
+            case QUIT:
+                return "part";
+            case TOPIC:
+                return "topic";
+            case HISTORY_SEPARATOR:
+                return SEPARATOR_CLASS;
+            default:
+                return "line";
+        }
+    }
+
+    /**
+     * Class for text in IRC color {@code id}; codes outside the palette draw black.
+     */
+    static String colorClass(String id) {
+        int code = colorCode(id);
+        return "c" + (code != -1 ? code : 1);
+    }
+
+    /**
+     * Class for a background in IRC color {@code id}, or null if it is not in the palette.
+     */
+    static String backgroundClass(String id) {
+        int code = colorCode(id);
+        return code != -1 ? "b" + code : null;
+    }
+
+    private static int colorCode(String id) {
+        if (id == null) {
+            return -1;
+        }
+        try {
+            int code = Integer.parseInt(id);
+            return code >= 0 && code <= MAX_COLOR ? code : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static StyleSheet createStyles() {
+        StyleSheet styles = new StyleSheet();
+        // The stock HTML rules, as a document made by the default kit would see them.
+        styles.addStyleSheet(new HTMLEditorKit().getStyleSheet());
+        styles.addRule("body { color: " + hex(ColorScheme.TEXT_COLOR) + " }");
+        styles.addRule(".line { color: " + hex(ColorScheme.LIGHT_GRAY_COLOR) + " }");
+        styles.addRule(".system { color: " + hex(ColorScheme.BRAND_ORANGE) + " }");
+        styles.addRule(".join { color: " + hex(ColorScheme.PROGRESS_INPROGRESS_COLOR) + " }");
+        styles.addRule(".part { color: " + hex(ColorScheme.PROGRESS_ERROR_COLOR) + " }");
+        styles.addRule(".topic { color: " + hex(ColorScheme.TEXT_COLOR) + " }");
+        styles.addRule("." + SEPARATOR_CLASS + " { color: #808080; text-align: center }");
+        for (int code = 0; code <= MAX_COLOR; code++) {
+            String color = IrcPanel.ChannelPane.htmlColorById(Integer.toString(code));
+            styles.addRule(".c" + code + " { color: " + color + " }");
+            styles.addRule(".b" + code + " { background-color: " + color + " }");
+        }
+        return styles;
+    }
+
+    private static String hex(Color color) {
+        return ColorUtil.toHexColor(color);
+    }
+}
@@ -0,0 +1,74 @@
+package com.irc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Collects UI updates from any thread and hands them to the EDT in per-key batches.
+ *
+ * Producers append lock-free; the first item after a drain arms a one-shot Swing timer, so the
+ * EDT drains at most once per {@code intervalMs} no matter how many items arrive. Each drain
+ * groups pending items by key (in first-seen order) and passes every group to the sink once,
+ * preserving the arrival order within a group.
+ */
+@Slf4j
+class CoalescingUpdateQueue<T> {
+
+    private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Function<T, String> keyFunction;
+    private final BiConsumer<String, List<T>> sink;
+    private final Timer timer;
+
+    CoalescingUpdateQueue(int intervalMs, Function<T, String> keyFunction, BiConsumer<String, List<T>> sink) {
+        this.keyFunction = keyFunction;
+        this.sink = sink;
+        this.timer = new Timer(intervalMs, e -> drain());
+        this.timer.setRepeats(false);
+    }
+
+    /** Safe to call from any thread. */
+    void offer(T item) {
+        pending.add(item);
+        if (scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    /** Drops anything not yet delivered and disarms the timer. */
+    void clear() {
+        timer.stop();
+        pending.clear();
+        scheduled.set(false);
+    }
+
+    private void drain() {
+        // Re-arm before polling so an item racing with this drain schedules the next frame
+        // instead of being stranded until some later offer.
+        scheduled.set(false);
+
+        Map<String, List<T>> batches = new LinkedHashMap<>();
+        T item;
+        while ((item = pending.poll()) != null) {
+            batches.computeIfAbsent(keyFunction.apply(item), k -> new ArrayList<>()).add(item);
+        }
+
+        for (Map.Entry<String, List<T>> batch : batches.entrySet()) {
+            try {
+                sink.accept(batch.getKey(), batch.getValue());
+            } catch (Exception e) {
+                log.warn("Failed to apply {} queued update(s) for {}", batch.getValue().size(), batch.getKey(), e);
+            }
+        }
+    }
+}
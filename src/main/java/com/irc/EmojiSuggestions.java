@@ -0,0 +1,178 @@
+package com.irc;
+
+import com.irc.emoji.Emoji;
+import com.irc.emoji.EmojiManager;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.Popup;
+import javax.swing.PopupFactory;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+
+/**
+ * Suggests emoji aliases while a {@code :shortcode} is being typed into the input field.
+ *
+ * While the list is showing, Up and Down move through it, Tab or Enter insert the selected
+ * alias and Escape closes it; otherwise those keys keep their usual bindings.
+ */
+class EmojiSuggestions {
+
+    private static final int MAX_SUGGESTIONS = 8;
+    // Fewer chars than this after the colon match too much to be useful.
+    private static final int MIN_PREFIX = 2;
+
+    private final JTextField field;
+    private final JList<String> list = new JList<>();
+    private Popup popup;
+    // Start of the ":prefix" being completed.
+    private int tokenStart;
+
+    EmojiSuggestions(JTextField field) {
+        this.field = field;
+        list.setFocusable(false);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setBorder(BorderFactory.createLineBorder(list.getForeground().darker()));
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Emoji emoji = EmojiManager.getForAlias((String) value);
+                String glyph = emoji != null ? emoji.getUnicode() + "  " : "";
+                return super.getListCellRendererComponent(list, glyph + ":" + value + ":", index, isSelected, cellHasFocus);
+            }
+        });
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                SwingUtilities.invokeLater(EmojiSuggestions.this::update);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                SwingUtilities.invokeLater(EmojiSuggestions.this::update);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                hide();
+            }
+        });
+        // Key listeners run before the field's key bindings, so consuming here keeps Enter from
+        // sending and Up/Down from recalling history while a suggestion is being picked.
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (popup == null) {
+                    return;
+                }
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_UP:
+                        move(-1);
+                        break;
+                    case KeyEvent.VK_DOWN:
+                        move(1);
+                        break;
+                    case KeyEvent.VK_TAB:
+                    case KeyEvent.VK_ENTER:
+                        accept();
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        hide();
+                        break;
+                    default:
+                        return;
+                }
+                e.consume();
+            }
+        });
+    }
+
+    void hide() {
+        if (popup != null) {
+            popup.hide();
+            popup = null;
+        }
+    }
+
+    private void update() {
+        String prefix = currentPrefix();
+        List<String> matches = prefix != null
+                ? EmojiManager.getAliasesStartingWith(prefix, MAX_SUGGESTIONS)
+                : null;
+        hide();
+        if (matches == null || matches.isEmpty() || !field.isShowing()) {
+            return;
+        }
+        list.setListData(matches.toArray(new String[0]));
+        list.setSelectedIndex(0);
+
+        Dimension size = list.getPreferredSize();
+        Point origin = field.getLocationOnScreen();
+        popup = PopupFactory.getSharedInstance().getPopup(field, list, origin.x, origin.y - size.height);
+        popup.show();
+    }
+
+    /**
+     * The lowercased alias prefix typed just before the caret, or null if the caret is not at the
+     * end of a {@code :word} that starts the text or follows whitespace.
+     */
+    private String currentPrefix() {
+        String text = field.getText();
+        int caret = field.getCaretPosition();
+        int i = caret;
+        while (i > 0 && isAliasChar(text.charAt(i - 1))) {
+            i--;
+        }
+        if (i == 0 || text.charAt(i - 1) != ':' || caret - i < MIN_PREFIX) {
+            return null;
+        }
+        int colon = i - 1;
+        if (colon > 0 && !Character.isWhitespace(text.charAt(colon - 1))) {
+            return null;
+        }
+        tokenStart = colon;
+        return text.substring(i, caret).toLowerCase();
+    }
+
+    private static boolean isAliasChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '+';
+    }
+
+    private void move(int delta) {
+        int size = list.getModel().getSize();
+        int index = (list.getSelectedIndex() + delta + size) % size;
+        list.setSelectedIndex(index);
+        list.ensureIndexIsVisible(index);
+    }
+
+    private void accept() {
+        String alias = list.getSelectedValue();
+        hide();
+        if (alias == null) {
+            return;
+        }
+        String text = field.getText();
+        int caret = field.getCaretPosition();
+        String replacement = ":" + alias + ": ";
+        field.setText(text.substring(0, tokenStart) + replacement + text.substring(caret));
+        field.setCaretPosition(tokenStart + replacement.length());
+    }
+}
@@ -6,10 +6,13 @@ import lombok.extern.slf4j.Slf4j;
 import javax.swing.*;
 import java.awt.*;
 import java.time.Instant;
-import java.util.HashMap;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
 /**
@@ -20,20 +23,36 @@ public class IrcAdapter {
     @Getter
     private SimpleIrcClient client;
     private String currentNick;
-    private final Map<String, Set<String>> channelUsers = new HashMap<>();
+    private static final int MAX_COMPLETIONS = 50;
+    // Keyed by case-folded channel name.
+    private final Map<String, NickIndex> nickIndexes = new ConcurrentHashMap<>();
     private Consumer<IrcMessage> messageConsumer;
     private IrcConfig config;
     private IrcPanel panel;
+    private volatile MessageRules rules;
+    private NetsplitTracker netsplits;
 
     public IrcAdapter() {
         client = new SimpleIrcClient();
     }
 
     /**
-     * Initialize the client with the provided config
+     * An adapter over an existing client that only forwards the lines it originates, for tests.
      */
-    public void initialize(IrcConfig config, Consumer<IrcMessage> messageConsumer, IrcPanel panel, String currentNick) {
+    IrcAdapter(SimpleIrcClient client, Consumer<IrcMessage> messageConsumer) {
+        this.client = client;
         this.messageConsumer = messageConsumer;
+        this.currentNick = client.getNick();
+    }
+
+    /**
+     * Initialize the client with the provided config; netsplit summaries are emitted on
+     * {@code scheduler}.
+     */
+    public void initialize(IrcConfig config, Consumer<IrcMessage> messageConsumer, IrcPanel panel, String currentNick,
+                           ScheduledExecutorService scheduler) {
+        this.messageConsumer = messageConsumer;
+        this.netsplits = new NetsplitTracker(this::processMessage, scheduler);
         this.currentNick = currentNick;
         this.config = config;
         this.panel = panel;
@@ -47,6 +66,9 @@ public class IrcAdapter {
         }
 
         setupEventHandlers();
+        if (panel != null) {
+            panel.setNickCompleter(this::completeNick);
+        }
     }
 
     /**
@@ -78,6 +100,7 @@ public class IrcAdapter {
      */
     public void leaveChannel(String channel) {
         client.leaveChannel(channel);
+        nickIndexes.remove(NickIndex.fold(channel));
     }
 
     /**
@@ -85,6 +108,7 @@ public class IrcAdapter {
      */
     public void leaveChannel(String channel, String reason) {
         client.leaveChannel(channel, reason);
+        nickIndexes.remove(NickIndex.fold(channel));
     }
 
     /**
@@ -97,7 +121,7 @@ public class IrcAdapter {
                 currentNick,
                 message,
                 IrcMessage.MessageType.PRIVATE,
-                Instant.now()
+                client.serverNow()
         ));
     }
 
@@ -111,7 +135,7 @@ public class IrcAdapter {
                 "* " + currentNick,
                 action,
                 IrcMessage.MessageType.PRIVATE,
-                Instant.now()
+                client.serverNow()
         ));
     }
 
@@ -150,6 +174,33 @@ public class IrcAdapter {
         return currentNick;
     }
 
+    /**
+     * Nicks in a channel starting with the given prefix, recent speakers first
+     */
+    public List<String> completeNick(String channel, String prefix) {
+        NickIndex index = nickIndexes.get(NickIndex.fold(channel));
+        return index != null ? index.complete(prefix, MAX_COMPLETIONS) : Collections.emptyList();
+    }
+
+    private NickIndex nickIndex(String channel) {
+        return nickIndexes.computeIfAbsent(NickIndex.fold(channel), k -> new NickIndex());
+    }
+
+    /**
+     * Apply a callback to the nick index of every channel in a comma separated list
+     */
+    private void forEachIndex(String channels, Consumer<NickIndex> action) {
+        if (channels == null || channels.isEmpty()) {
+            return;
+        }
+        for (String channel : channels.split(",")) {
+            NickIndex index = channel.isEmpty() ? null : nickIndexes.get(NickIndex.fold(channel));
+            if (index != null) {
+                action.accept(index);
+            }
+        }
+    }
+
     /**
      * Process and forward incoming messages to the plugin
      */
@@ -159,6 +210,44 @@ public class IrcAdapter {
         }
     }
 
+    /**
+     * Evaluate the highlight and ignore rules for an incoming event, recompiling them first if
+     * the config or our nick changed since the last message
+     */
+    private MessageRules.Verdict evaluateRules(SimpleIrcClient.IrcEvent event) {
+        String nick = config.highlightOwnNick() ? currentNick : null;
+        String words = config.highlightWords();
+        String masks = config.ignoreMasks();
+        MessageRules compiled = rules;
+        if (compiled == null || !compiled.isCompiledFrom(nick, words, masks)) {
+            compiled = MessageRules.compile(nick, words, masks);
+            rules = compiled;
+        }
+
+        String hostmask = event.getHostmask();
+        if (hostmask == null || hostmask.indexOf('!') < 0) {
+            hostmask = event.getSource() + "!@";
+        }
+        return compiled.evaluate(hostmask, event.getMessage());
+    }
+
+    /**
+     * When the server says the event happened, from its IRCv3 server-time tag, or the server's
+     * current time if it did not say. Stored lines carry this, so the history cursor sent back
+     * follows the server's clock.
+     */
+    private Instant timestampOf(SimpleIrcClient.IrcEvent event) {
+        String time = event.getServerTime();
+        if (time != null && !time.isEmpty()) {
+            try {
+                return Instant.parse(time);
+            } catch (DateTimeParseException e) {
+                log.debug("Unparseable server-time {}", time);
+            }
+        }
+        return client.serverNow();
+    }
+
     /**
      * Set up event handlers for the SimpleIrcClient
      */
@@ -188,13 +277,22 @@ public class IrcAdapter {
                     break;
 
                 case DISCONNECT:
+                    nickIndexes.clear();
+                    netsplits.clear();
                     processMessage(new IrcMessage("System", "System", "Disconnected from IRC", IrcMessage.MessageType.SYSTEM, Instant.now()));
                     for (String channel : client.getChannels()) {
                         processMessage(new IrcMessage(channel, "System", "Disconnected from IRC", IrcMessage.MessageType.SYSTEM, Instant.now()));
                     }
                     break;
 
-                case MESSAGE:
+                case MESSAGE: {
+                    MessageRules.Verdict verdict = evaluateRules(event);
+                    if (verdict == MessageRules.Verdict.IGNORE) {
+                        break;
+                    }
+                    if (target != null && target.startsWith("#")) {
+                        nickIndex(target).spoke(source);
+                    }
                     if (Objects.equals(target, source)) {
                         switch (config.filterPMs()) {
                             case Current:
@@ -210,36 +308,74 @@ public class IrcAdapter {
                                 break;
                         }
                     }
-                    processMessage(new IrcMessage(target, source, event.getMessage(), IrcMessage.MessageType.CHAT, Instant.now()));
+                    processMessage(new IrcMessage(target, source, event.getMessage(), IrcMessage.MessageType.CHAT, timestampOf(event),
+                            verdict == MessageRules.Verdict.HIGHLIGHT));
                     break;
+                }
 
-                case ACTION:
-                    processMessage(new IrcMessage(event.getTarget(), "* " + event.getSource(), event.getMessage(), IrcMessage.MessageType.CHAT, Instant.now()));
+                case ACTION: {
+                    MessageRules.Verdict verdict = evaluateRules(event);
+                    if (verdict == MessageRules.Verdict.IGNORE) {
+                        break;
+                    }
+                    if (target != null && target.startsWith("#")) {
+                        nickIndex(target).spoke(source);
+                    }
+                    processMessage(new IrcMessage(event.getTarget(), "* " + event.getSource(), event.getMessage(), IrcMessage.MessageType.CHAT, timestampOf(event),
+                            verdict == MessageRules.Verdict.HIGHLIGHT));
                     break;
+                }
 
                 case JOIN:
-                    if (!config.hideConnectionMessages()) {
+                    if (source != null && source.equalsIgnoreCase(currentNick)) {
+                        // Fresh membership; the NAMES reply that follows repopulates it.
+                        nickIndexes.put(NickIndex.fold(target), new NickIndex());
+                    }
+                    nickIndex(target).add(source);
+                    if (!config.hideConnectionMessages() && !netsplits.join(source, target, null, false, timestampOf(event))) {
                         processMessage(new IrcMessage(
                                 event.getTarget(),
                                 "*",
                                 event.getSource() + " has joined.",
                                 IrcMessage.MessageType.JOIN,
-                                Instant.now()
+                                timestampOf(event)
                         ));
                     }
                     break;
 
                 case PART:
+                    forEachIndex(target, index -> index.remove(event.getSource()));
                     if (!config.hideConnectionMessages()) {
-                        processMessage(new IrcMessage(event.getTarget(), event.getSource() + " parted", (event.getMessage() != null ? event.getMessage() : " "), IrcMessage.MessageType.PART, Instant.now()));
+                        processMessage(new IrcMessage(event.getTarget(), event.getSource() + " parted", (event.getMessage() != null ? event.getMessage() : " "), IrcMessage.MessageType.PART, timestampOf(event)));
                     }
                     break;
 
                 case QUIT:
-                    if (!config.hideConnectionMessages() && event.getAdditionalData() != null && !event.getAdditionalData().isEmpty()) {
+                    forEachIndex(event.getAdditionalData(), index -> index.remove(event.getSource()));
+                    if (!config.hideConnectionMessages() && NetsplitTracker.isSplitQuit(event.getMessage())) {
+                        netsplits.quit(source, event.getMessage(), event.getAdditionalData(), timestampOf(event));
+                    } else if (!config.hideConnectionMessages() && event.getAdditionalData() != null && !event.getAdditionalData().isEmpty()) {
                         String[] channels = event.getAdditionalData().split(",");
                         for (String channel : channels) {
-                            processMessage(new IrcMessage(channel, event.getSource() + " quit", event.getMessage() != null ? event.getMessage() : " ", IrcMessage.MessageType.QUIT, Instant.now()));
+                            processMessage(new IrcMessage(channel, event.getSource() + " quit", event.getMessage() != null ? event.getMessage() : " ", IrcMessage.MessageType.QUIT, timestampOf(event)));
+                        }
+                    }
+                    break;
+
+                case NETSPLIT:
+                    for (SimpleIrcClient.IrcEvent quit : event.getHistoryMessages()) {
+                        forEachIndex(quit.getAdditionalData(), index -> index.remove(quit.getSource()));
+                        if (!config.hideConnectionMessages()) {
+                            netsplits.quit(quit.getSource(), event.getMessage(), quit.getAdditionalData(), timestampOf(quit));
+                        }
+                    }
+                    break;
+
+                case NETJOIN:
+                    for (SimpleIrcClient.IrcEvent join : event.getHistoryMessages()) {
+                        nickIndex(join.getTarget()).add(join.getSource());
+                        if (!config.hideConnectionMessages()) {
+                            netsplits.join(join.getSource(), join.getTarget(), event.getMessage(), true, timestampOf(join));
                         }
                     }
                     break;
@@ -256,27 +392,35 @@ public class IrcAdapter {
                         SwingUtilities.invokeLater(() -> panel.renameChannel(oldNick, newNick));
                     }
 
+                    forEachIndex(event.getAdditionalData(), index -> index.rename(oldNick, newNick));
+
                     if (event.getAdditionalData() != null) {
                         String[] channels = event.getAdditionalData().split(",");
                         for (String channel : channels) {
                             if (channel != null && !channel.isEmpty()) {
-                                processMessage(new IrcMessage(channel, oldNick + " is now known as", newNick, IrcMessage.MessageType.NICK_CHANGE, Instant.now()));
+                                processMessage(new IrcMessage(channel, oldNick + " is now known as", newNick, IrcMessage.MessageType.NICK_CHANGE, timestampOf(event)));
                             }
                         }
                     }
                     break;
 
                 case KICK:
+                    String[] kickParts = event.getMessage().split(" ", 2);
+                    String kickedUser = kickParts[0];
+                    if (kickedUser.equalsIgnoreCase(currentNick)) {
+                        nickIndexes.remove(NickIndex.fold(target));
+                    } else {
+                        forEachIndex(target, index -> index.remove(kickedUser));
+                    }
                     if (!config.hideConnectionMessages()) {
-                        String[] kickParts = event.getMessage().split(" ", 2);
-                        String kickedUser = kickParts[0];
                         String kickReason = kickParts.length > 1 ? kickParts[1] : "";
-                        processMessage(new IrcMessage(event.getTarget(), event.getSource() + " kicked " + kickedUser, kickReason, IrcMessage.MessageType.KICK, Instant.now()));
+                        processMessage(new IrcMessage(event.getTarget(), event.getSource() + " kicked " + kickedUser, kickReason, IrcMessage.MessageType.KICK, timestampOf(event)));
                     }
                     break;
 
                 case SERVER_NOTICE:
-                case NOTICE:
+                case NOTICE: {
+                    boolean highlight = false;
                     if (source != null && source.endsWith(".SwiftIRC.net")) {
                         if (!config.filterServerNotices()) {
                             target = "System";
@@ -284,6 +428,11 @@ public class IrcAdapter {
                             target = source;
                         }
                     } else {
+                        MessageRules.Verdict verdict = evaluateRules(event);
+                        if (verdict == MessageRules.Verdict.IGNORE) {
+                            break;
+                        }
+                        highlight = verdict == MessageRules.Verdict.HIGHLIGHT;
                         source = "[N] " + source;
                         switch (config.filterNotices()) {
                             case Current:
@@ -297,11 +446,12 @@ public class IrcAdapter {
                                 break;
                         }
                     }
-                    processMessage(new IrcMessage(target, source, event.getMessage(), IrcMessage.MessageType.NOTICE, Instant.now()));
+                    processMessage(new IrcMessage(target, source, event.getMessage(), IrcMessage.MessageType.NOTICE, timestampOf(event), highlight));
                     break;
+                }
 
                 case CHANNEL_MODE:
-                    processMessage(new IrcMessage(event.getTarget(), event.getSource(), event.getMessage(), IrcMessage.MessageType.MODE, Instant.now()));
+                    processMessage(new IrcMessage(event.getTarget(), event.getSource(), event.getMessage(), IrcMessage.MessageType.MODE, timestampOf(event)));
                     break;
 
                 case USER_MODE:
@@ -309,11 +459,20 @@ public class IrcAdapter {
                     break;
 
                 case TOPIC:
-                    processMessage(new IrcMessage(event.getTarget(), "* Topic", event.getMessage(), IrcMessage.MessageType.TOPIC, Instant.now()));
+                    processMessage(new IrcMessage(event.getTarget(), "* Topic", event.getMessage(), IrcMessage.MessageType.TOPIC, timestampOf(event)));
                     break;
 
                 case NAMES:
-                    processMessage(new IrcMessage(event.getTarget(), "Users", event.getMessage(), IrcMessage.MessageType.JOIN, Instant.now()));
+                    NickIndex names = nickIndex(target);
+                    for (String name : event.getMessage().split(" ")) {
+                        // Strip every status prefix; multi-prefix servers can send several.
+                        int start = 0;
+                        while (start < name.length() && "~&@%+".indexOf(name.charAt(start)) >= 0) {
+                            start++;
+                        }
+                        names.add(name.substring(start));
+                    }
+                    processMessage(new IrcMessage(event.getTarget(), "Users", event.getMessage(), IrcMessage.MessageType.JOIN, timestampOf(event)));
                     break;
 
                 case NICK_IN_USE:
@@ -344,20 +503,25 @@ public class IrcAdapter {
                     break;
 
                 case TOPIC_INFO:
-                    processMessage(new IrcMessage(event.getTarget(), event.getSource(), event.getMessage(), IrcMessage.MessageType.TOPIC, Instant.now()));
+                    processMessage(new IrcMessage(event.getTarget(), event.getSource(), event.getMessage(), IrcMessage.MessageType.TOPIC, timestampOf(event)));
                     break;
 
                 case HISTORY_BATCH:
                     if (event.getHistoryMessages() != null && !event.getHistoryMessages().isEmpty()) {
                         for (SimpleIrcClient.IrcEvent accEvent : event.getHistoryMessages()) {
+                            // Replayed lines get the same rules as live ones, before they are shown or stored.
+                            MessageRules.Verdict verdict = evaluateRules(accEvent);
+                            if (verdict == MessageRules.Verdict.IGNORE) {
+                                continue;
+                            }
                             Instant timestamp;
                             try {
                                 String timeStr = accEvent.getAdditionalData();
                                 timestamp = (timeStr != null && !timeStr.isEmpty())
                                     ? Instant.parse(timeStr)
-                                    : Instant.now();
+                                    : client.serverNow();
                             } catch (Exception e) {
-                                timestamp = Instant.now();
+                                timestamp = client.serverNow();
                             }
                             String sender = accEvent.getSource() != null ? accEvent.getSource() : "";
                             if (accEvent.getType() == SimpleIrcClient.IrcEvent.Type.ACTION) {
@@ -365,12 +529,13 @@ public class IrcAdapter {
                             }
                             processMessage(new IrcMessage(
                                 event.getTarget(), sender, accEvent.getMessage(),
-                                IrcMessage.MessageType.HISTORY, timestamp
+                                IrcMessage.MessageType.HISTORY, timestamp,
+                                verdict == MessageRules.Verdict.HIGHLIGHT
                             ));
                         }
                         processMessage(new IrcMessage(
                             event.getTarget(), "*", "--- Begin of chat ---",
-                            IrcMessage.MessageType.HISTORY_SEPARATOR, Instant.now()
+                            IrcMessage.MessageType.HISTORY_SEPARATOR, client.serverNow()
                         ));
                     }
                     break;
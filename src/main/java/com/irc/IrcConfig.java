@@ -268,6 +268,28 @@ public interface IrcConfig extends Config
     )
     default int overlayMaxWidth() { return 500; }
 
+    @ConfigItem(
+            keyName = "messageOverlay",
+            name = "Show Messages In-Game",
+            description = "Show the last lines of the active channel over the game view. Alt+drag to move it.",
+            position = 3,
+            section = overlaySettings
+    )
+    default boolean messageOverlay() { return false; }
+
+    @Range(
+            min = 1,
+            max = IrcMessageOverlay.MAX_LINES
+    )
+    @ConfigItem(
+            keyName = "messageOverlayLines",
+            name = "Overlay Lines",
+            description = "How many of the latest lines to show in-game",
+            position = 4,
+            section = overlaySettings
+    )
+    default int messageOverlayLines() { return 6; }
+
     @ConfigSection(
             name = "Side Panel",
             description = "Side panel settings",
@@ -354,4 +376,136 @@ public interface IrcConfig extends Config
             section = sidePanelSettings
     )
     default Integer fontSize() { return 12; }
+
+    @ConfigItem(
+            keyName = "persistScrollback",
+            name = "Save History to Disk",
+            description = "Keep channel and private message history on disk across restarts and load older lines when scrolling up",
+            position = 8,
+            section = sidePanelSettings
+    )
+    default boolean persistScrollback() { return false; }
+
+    @Range(
+            min = 16
+    )
+    @ConfigItem(
+            keyName = "scrollbackDiskLimit",
+            name = "History Disk Limit (MB)",
+            description = "Disk space for saved history of all channels together; the oldest history goes first",
+            position = 9,
+            section = sidePanelSettings
+    )
+    default int scrollbackDiskLimit() { return 256; }
+
+    @Range(
+            min = 1,
+            max = 1024
+    )
+    @ConfigItem(
+            keyName = "scrollbackBudget",
+            name = "Scrollback Memory (MB)",
+            description = "Memory shared by the scrollback of all open tabs",
+            position = 10,
+            section = sidePanelSettings
+    )
+    default int scrollbackBudget() { return 32; }
+
+    @ConfigItem(
+            keyName = "scrollbackWeights",
+            name = "Scrollback Weights",
+            description = "Bigger shares of the scrollback memory for busy tabs, e.g. #rshelp:4, #swiftirc:2. Channels weigh 1 and private messages 0.25 unless listed.",
+            position = 11,
+            section = sidePanelSettings
+    )
+    default String scrollbackWeights() { return ""; }
+
+    @Range(
+            min = 0
+    )
+    @ConfigItem(
+            keyName = "hibernateAfter",
+            name = "Hibernate Idle Tabs (minutes)",
+            description = "Compress the scrollback of tabs that have not been looked at for this long, 0 to never",
+            position = 12,
+            section = sidePanelSettings
+    )
+    default int hibernateAfter() { return 5; }
+
+    @Range(
+            min = 1,
+            max = 512
+    )
+    @ConfigItem(
+            keyName = "previewCacheMemory",
+            name = "Preview Cache Memory (MB)",
+            description = "Memory for image previews shared by all tabs, so re-hovering a link is instant",
+            position = 13,
+            section = sidePanelSettings
+    )
+    default int previewCacheMemory() { return 32; }
+
+    @Range(
+            min = 0
+    )
+    @ConfigItem(
+            keyName = "previewDiskCache",
+            name = "Preview Disk Cache (MB)",
+            description = "Disk space for keeping image previews across restarts, 0 to keep them in memory only",
+            position = 14,
+            section = sidePanelSettings
+    )
+    default int previewDiskCache() { return 64; }
+
+    @ConfigItem(
+            keyName = "prefetchPreviews",
+            name = "Prefetch Previews",
+            description = "Download previews of image links posted in the open tab in the background, so hovering them is instant. Needs hover-preview image links.",
+            position = 15,
+            section = sidePanelSettings
+    )
+    default boolean prefetchPreviews() { return false; }
+
+    @ConfigItem(
+            keyName = "inlineThumbnails",
+            name = "Inline Thumbnails",
+            description = "Show small thumbnails under messages with image links. Images load as they scroll into view. WARNING: shares your IP with image hosts.",
+            position = 16,
+            section = sidePanelSettings
+    )
+    default boolean inlineThumbnails() { return false; }
+
+    @ConfigSection(
+            name = "Highlights & Ignores",
+            description = "Mention, keyword and ignore rules",
+            position = 4
+    )
+    String highlightSettings = "highlightSettings";
+
+    @ConfigItem(
+            keyName = "highlightOwnNick",
+            name = "Highlight My Nick",
+            description = "Mark a tab as important when someone mentions your nick.",
+            position = 0,
+            section = highlightSettings
+    )
+    default boolean highlightOwnNick() { return true; }
+
+    @ConfigItem(
+            keyName = "highlightWords",
+            name = "Highlight Words",
+            description = "Comma separated words that mark a tab as important when mentioned.",
+            position = 1,
+            section = highlightSettings
+    )
+    default String highlightWords() { return ""; }
+
+    @ConfigItem(
+            keyName = "ignoreMasks",
+            name = "Ignore List",
+            description = "Comma separated nicks or nick!user@host masks (* and ? wildcards) whose messages are dropped.",
+            position = 2,
+            section = highlightSettings
+    )
+    default String ignoreMasks() { return ""; }
 }
\ No newline at end of file
@@ -1,15 +1,23 @@
 package com.irc;
 
+import lombok.AllArgsConstructor;
 import lombok.Value;
 import java.time.Instant;
 
 @Value
+@AllArgsConstructor
 public class IrcMessage {
     String channel;
     String sender;
     String content;
     MessageType type;
     Instant timestamp;
+    // Matched a highlight rule (own nick or a keyword).
+    boolean highlight;
+
+    public IrcMessage(String channel, String sender, String content, MessageType type, Instant timestamp) {
+        this(channel, sender, content, type, timestamp, false);
+    }
 
     enum MessageType {
         CHAT, SYSTEM, JOIN, PART, QUIT, NICK_CHANGE, PRIVATE, NOTICE, KICK, TOPIC, MODE,
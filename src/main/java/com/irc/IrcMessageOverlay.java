@@ -0,0 +1,336 @@
+package com.irc;
+
+import net.runelite.client.ui.ColorScheme;
+import net.runelite.client.ui.FontManager;
+import net.runelite.client.ui.overlay.Overlay;
+import net.runelite.client.ui.overlay.OverlayLayer;
+import net.runelite.client.ui.overlay.OverlayPosition;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows the last few lines of the active channel over the game view.
+ *
+ * Each line is rasterized into its own image once, on a worker lane of its own, so frames only
+ * blit images and the overlay costs next to nothing at any frame rate. A line of the showing
+ * channel is rasterized before it is recorded, so it appears whole on its first frame. Only the
+ * showing channel keeps its images; those of a channel switched to are drawn again on the lane.
+ * A channel's lines are dropped when its tab is closed and follow it when it is renamed.
+ */
+public class IrcMessageOverlay extends Overlay {
+
+    // Upper bound of the "Overlay Lines" option.
+    static final int MAX_LINES = 20;
+    // A long message wraps onto at most this many rows, the last one cut short.
+    private static final int MAX_ROWS = 3;
+    private static final int PADDING = 2;
+    private static final String ELLIPSIS = "...";
+    private static final Color BACKGROUND = new Color(0, 0, 0, 120);
+    private static final Color SHADOW = Color.BLACK;
+    private static final Color TEXT_COLOR = Color.WHITE;
+    private static final Color EVENT_COLOR = ColorScheme.BRAND_ORANGE;
+
+    private final IrcPanel panel;
+    private final IrcConfig config;
+    // Records, renames and rasterizes lines off the render thread; one lane keeps them in order.
+    private final StripedExecutor rasterizer = new StripedExecutor("irc-overlay", 1);
+    // Recent lines by channel, guarded by itself.
+    private final Map<String, Recent> recent = new HashMap<>();
+    private final Dimension size = new Dimension();
+    // Channel shown on the last frame, written under recent.
+    private volatile String shownChannel;
+    // Bumped under recent whenever images are dropped, so ones drawn at the old width are not kept.
+    private int generation;
+    // Only used on the rasterizer lane.
+    private FontMetrics metrics;
+    // Copied from the config by updateConfig, so frames do not go through the config proxy.
+    private volatile boolean enabled;
+    private volatile int lineCount;
+    private volatile int maxWidth;
+
+    IrcMessageOverlay(IrcPanel panel, IrcConfig config) {
+        this.panel = panel;
+        this.config = config;
+        setPosition(OverlayPosition.TOP_LEFT);
+        setLayer(OverlayLayer.ABOVE_SCENE);
+        updateConfig();
+    }
+
+    /**
+     * Picks up changed overlay options; a new width redraws the showing channel on the next frame.
+     */
+    void updateConfig() {
+        enabled = config.messageOverlay();
+        lineCount = config.messageOverlayLines();
+        int width = Math.max(16, config.overlayMaxWidth());
+        if (width != maxWidth) {
+            maxWidth = width;
+            invalidate();
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a line for its channel. {@code text} is the message content already stripped of
+     * IRC styles. Safe to call from any thread.
+     */
+    void add(IrcMessage message, String text) {
+        if (message.getType() == IrcMessage.MessageType.HISTORY_SEPARATOR) {
+            return;
+        }
+        String channel = message.getChannel();
+        rasterizer.execute(channel, () -> {
+            Line line = new Line(message, text);
+            int drawnFor;
+            synchronized (recent) {
+                drawnFor = generation;
+            }
+            BufferedImage image = channel.equals(shownChannel) ? rasterize(line) : null;
+            synchronized (recent) {
+                if (generation == drawnFor) {
+                    line.image = image;
+                }
+                recent.computeIfAbsent(channel, key -> new Recent()).add(line);
+            }
+        });
+    }
+
+    /**
+     * Forgets a channel's lines once its tab is gone.
+     */
+    void removeChannel(String channel) {
+        rasterizer.execute(channel, () -> {
+            synchronized (recent) {
+                recent.remove(channel);
+            }
+        });
+    }
+
+    /**
+     * Moves a channel's lines to its new tab name.
+     */
+    void renameChannel(String oldName, String newName) {
+        rasterizer.execute(oldName, () -> {
+            synchronized (recent) {
+                Recent lines = recent.remove(oldName);
+                if (lines != null) {
+                    recent.put(newName, lines);
+                }
+            }
+        });
+    }
+
+    void shutDown() {
+        rasterizer.shutdown();
+    }
+
+    private void invalidate() {
+        synchronized (recent) {
+            generation++;
+            for (Recent lines : recent.values()) {
+                lines.dropImages();
+            }
+        }
+    }
+
+    @Override
+    public Dimension render(Graphics2D graphics) {
+        if (!enabled || panel == null) {
+            return null;
+        }
+        String channel = panel.getCurrentChannel();
+        List<Line> missing = null;
+        int drawnFor;
+        synchronized (recent) {
+            if (!channel.equals(shownChannel)) {
+                Recent previous = shownChannel != null ? recent.get(shownChannel) : null;
+                if (previous != null) {
+                    previous.dropImages();
+                }
+                generation++;
+                shownChannel = channel;
+            }
+            Recent lines = recent.get(channel);
+            if (lines == null || lines.count == 0) {
+                return null;
+            }
+            int shown = Math.min(lines.count, lineCount);
+            // Lines whose images were dropped are drawn again on the lane; until they are back,
+            // only the newest lines that have theirs are shown, so none is left out in between.
+            int first = lines.count;
+            while (first > lines.count - shown && lines.get(first - 1).image != null) {
+                first--;
+            }
+            for (int i = lines.count - shown; i < first; i++) {
+                Line line = lines.get(i);
+                if (!line.queued) {
+                    line.queued = true;
+                    if (missing == null) {
+                        missing = new ArrayList<>();
+                    }
+                    missing.add(line);
+                }
+            }
+            drawnFor = generation;
+            int width = 0;
+            int y = 0;
+            for (int i = first; i < lines.count; i++) {
+                BufferedImage image = lines.get(i).image;
+                graphics.drawImage(image, 0, y, null);
+                y += image.getHeight();
+                width = Math.max(width, image.getWidth());
+            }
+            size.setSize(width, y);
+        }
+        if (missing != null) {
+            List<Line> redraw = missing;
+            rasterizer.execute(channel, () -> {
+                for (Line line : redraw) {
+                    BufferedImage image = rasterize(line);
+                    synchronized (recent) {
+                        if (generation == drawnFor) {
+                            line.image = image;
+                        }
+                        line.queued = false;
+                    }
+                }
+            });
+        }
+        return size;
+    }
+
+    /**
+     * Draws a line into an image of its own. Only called on the rasterizer lane.
+     */
+    private BufferedImage rasterize(Line line) {
+        Font font = FontManager.getRunescapeSmallFont();
+        if (metrics == null || !metrics.getFont().equals(font)) {
+            BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D pg = probe.createGraphics();
+            metrics = pg.getFontMetrics(font);
+            pg.dispose();
+        }
+        FontMetrics fm = metrics;
+        List<String> rows = wrap(line.message.getSender() + ": " + line.text, fm, maxWidth - PADDING * 2 - 1);
+
+        int width = 0;
+        for (String row : rows) {
+            width = Math.max(width, fm.stringWidth(row));
+        }
+        int rowHeight = fm.getHeight();
+        BufferedImage image = new BufferedImage(width + PADDING * 2 + 1, rows.size() * rowHeight + 1,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = image.createGraphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setFont(font);
+        Color color = line.message.getType() == IrcMessage.MessageType.CHAT
+                || line.message.getType() == IrcMessage.MessageType.PRIVATE
+                || line.message.getType() == IrcMessage.MessageType.HISTORY
+                ? TEXT_COLOR : EVENT_COLOR;
+        for (int i = 0; i < rows.size(); i++) {
+            int baseline = i * rowHeight + fm.getAscent();
+            g.setColor(SHADOW);
+            g.drawString(rows.get(i), PADDING + 1, baseline + 1);
+            g.setColor(color);
+            g.drawString(rows.get(i), PADDING, baseline);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Breaks text at spaces into rows no wider than {@code width}, splitting words that do not fit
+     * on a row of their own, and ends the last row with an ellipsis if text is left over. Row
+     * widths are summed from per-char advances as the row grows.
+     */
+    static List<String> wrap(String text, FontMetrics fm, int width) {
+        List<String> rows = new ArrayList<>(MAX_ROWS);
+        int start = 0;
+        while (start < text.length() && rows.size() < MAX_ROWS) {
+            int end = start;
+            int lastSpace = -1;
+            int rowWidth = 0;
+            while (end < text.length() && rowWidth + fm.charWidth(text.charAt(end)) <= width) {
+                rowWidth += fm.charWidth(text.charAt(end));
+                if (text.charAt(end) == ' ') {
+                    lastSpace = end;
+                }
+                end++;
+            }
+            if (end < text.length() && lastSpace > start) {
+                end = lastSpace;
+            }
+            end = Math.max(end, start + 1);
+            rows.add(text.substring(start, end));
+            start = end;
+            while (start < text.length() && text.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        if (start < text.length()) {
+            String last = rows.get(rows.size() - 1);
+            int lastWidth = fm.stringWidth(last) + fm.stringWidth(ELLIPSIS);
+            int cut = last.length();
+            while (cut > 0 && lastWidth > width) {
+                lastWidth -= fm.charWidth(last.charAt(--cut));
+            }
+            rows.set(rows.size() - 1, last.substring(0, cut) + ELLIPSIS);
+        }
+        return rows;
+    }
+
+    private static final class Line {
+        final IrcMessage message;
+        final String text;
+        // Guarded by the overlay's recent map once the line is added.
+        BufferedImage image;
+        // Waiting on the lane to be drawn again.
+        boolean queued;
+
+        Line(IrcMessage message, String text) {
+            this.message = message;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The newest lines of one channel in a fixed ring, so reading them allocates nothing.
+     */
+    private static final class Recent {
+        private final Line[] lines = new Line[MAX_LINES];
+        private int start;
+        private int count;
+
+        void add(Line line) {
+            if (count < lines.length) {
+                lines[(start + count++) % lines.length] = line;
+            } else {
+                lines[start] = line;
+                start = (start + 1) % lines.length;
+            }
+        }
+
+        Line get(int i) {
+            return lines[(start + i) % lines.length];
+        }
+
+        void dropImages() {
+            for (int i = 0; i < count; i++) {
+                get(i).image = null;
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@ import net.runelite.client.ui.ColorScheme;
 import javax.inject.Inject;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 
 @Slf4j
 public class IrcOverlay extends Overlay implements KeyListener {
@@ -30,6 +32,12 @@ public class IrcOverlay extends Overlay implements KeyListener {
     private boolean enabled;
     private final IrcConfig config;
     private final KeyManager keyManager;
+    // Rebuilt on the client thread when the panel's tab state version, the width or the font change.
+    private TabLayout tabLayout;
+
+    private static final Color INACTIVE_TAB_COLOR = ColorScheme.DARKER_GRAY_COLOR.darker();
+    private static final Color UNREAD_TEXT_COLOR = ColorScheme.BRAND_ORANGE.brighter();
+    private static final Color READ_TEXT_COLOR = ColorScheme.BRAND_ORANGE.darker();
 
     @Inject
     public IrcOverlay(Client client, IrcPanel panel, IrcConfig config, KeyManager keyManager) {
@@ -101,52 +109,109 @@ public class IrcOverlay extends Overlay implements KeyListener {
         }
         int height = tabHeight;
 
-        // background
-        graphics.setColor(ColorScheme.DARKER_GRAY_COLOR);
         if (!config.overlayDynamic()) {
             x = 0;
             y = 0;
         }
 
+        TabLayout layout = tabLayout;
+        int version = panel.getTabStateVersion();
+        Font font = graphics.getFont();
+        FontRenderContext frc = graphics.getFontRenderContext();
+        if (layout == null || layout.version != version || layout.width != width
+                || !layout.font.equals(font) || !layout.frc.equals(frc)) {
+            layout = buildTabLayout(graphics, version, width);
+            tabLayout = layout;
+        }
+
+        // background
+        graphics.setColor(ColorScheme.DARKER_GRAY_COLOR);
         graphics.fillRect(x, y, width, height);
 
         // tabs
+        for (int i = 0; i < layout.glyphs.length; i++) {
+            graphics.setColor(layout.backgrounds[i]);
+            graphics.fillRect(x + layout.xs[i], y + layout.ys[i], layout.widths[i], height);
+            graphics.setColor(layout.foregrounds[i]);
+            graphics.drawGlyphVector(layout.glyphs[i], x + layout.xs[i] + padding, y + layout.ys[i] + height);
+        }
+
+        return layout.size;
+    }
+
+    /**
+     * Measures and shapes every tab once for the current channel state, width and font.
+     */
+    private TabLayout buildTabLayout(Graphics2D graphics, int version, int width) {
         java.util.List<String> channels = panel.getChannelNames();
         int activeTabIndex = Math.max(0, channels.indexOf(panel.getCurrentChannel()));
+        Font font = graphics.getFont();
+        FontRenderContext frc = graphics.getFontRenderContext();
+        FontMetrics fm = graphics.getFontMetrics();
+        TabLayout layout = new TabLayout(channels.size(), version, width, tabHeight, font, frc);
 
         int xOffset = 0;
         int yOffset = 0;
         for (int i = 0; i < channels.size(); i++) {
             boolean isActive = i == activeTabIndex;
             String channel = channels.get(i);
-            boolean isUnread = panel.unreadMessages.get(channel);
-
-            FontMetrics fm = graphics.getFontMetrics();
             int tabWidth = fm.stringWidth(channel) + padding * 2 - tabSpacing; // 8px padding each side
 
-            // stop drawing if tab exceeds width
+            // wrap to the next row if the tab exceeds the width
             if (xOffset + tabWidth > width) {
-                yOffset += height;
+                yOffset += tabHeight;
                 xOffset = 0;
             }
 
-            // tab background
-            graphics.setColor(isActive ? ColorScheme.BRAND_ORANGE : ColorScheme.DARKER_GRAY_COLOR.darker());
-            graphics.fillRect(x + xOffset, y + yOffset, tabWidth, height);
-
-            // channel name
-            graphics.setColor(isActive ? Color.WHITE : isUnread ? ColorScheme.BRAND_ORANGE.brighter() : ColorScheme.BRAND_ORANGE.darker());
-            graphics.drawString(channel, x + xOffset + padding, y + yOffset + height);
+            layout.xs[i] = xOffset;
+            layout.ys[i] = yOffset;
+            layout.widths[i] = tabWidth;
+            layout.backgrounds[i] = isActive ? ColorScheme.BRAND_ORANGE : INACTIVE_TAB_COLOR;
+            layout.foregrounds[i] = isActive ? Color.WHITE
+                    : panel.hasMention(channel) ? IrcPanel.MENTION_COLOR
+                    : panel.isUnread(channel) ? UNREAD_TEXT_COLOR
+                    : READ_TEXT_COLOR;
+            layout.glyphs[i] = font.createGlyphVector(frc, channel);
 
             xOffset += tabWidth + tabSpacing;
         }
+        return layout;
+    }
 
-        return new Dimension(width, height);
+    /**
+     * Everything render needs to draw the tab strip, positioned relative to its origin.
+     */
+    private static final class TabLayout {
+        final int version;
+        final int width;
+        final Font font;
+        final FontRenderContext frc;
+        final Dimension size;
+        final int[] xs;
+        final int[] ys;
+        final int[] widths;
+        final Color[] backgrounds;
+        final Color[] foregrounds;
+        final GlyphVector[] glyphs;
+
+        TabLayout(int tabs, int version, int width, int height, Font font, FontRenderContext frc) {
+            this.version = version;
+            this.width = width;
+            this.font = font;
+            this.frc = frc;
+            this.size = new Dimension(width, height);
+            this.xs = new int[tabs];
+            this.ys = new int[tabs];
+            this.widths = new int[tabs];
+            this.backgrounds = new Color[tabs];
+            this.foregrounds = new Color[tabs];
+            this.glyphs = new GlyphVector[tabs];
+        }
     }
 
     @Override
     public void keyPressed(KeyEvent e) {
-        if (panel == null || panel.getChannelPanes() == null) return;
+        if (panel == null || panel.getBuffers() == null) return;
 
         if (e.getKeyCode() == KeyEvent.VK_PAGE_UP && this.config.pageUpDownNavigation()) {
             panel.cycleChannelBackwards();
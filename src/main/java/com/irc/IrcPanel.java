@@ -5,27 +5,32 @@ import com.irc.emoji.EmojiParser;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.config.ConfigManager;
-import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.NavigationButton;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.util.ImageUtil;
-import net.runelite.client.util.ColorUtil;
 import net.runelite.client.util.LinkBrowser;
 import net.runelite.client.ui.ClientUI;
-import okhttp3.OkHttpClient;
 
 import javax.inject.Inject;
 import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.event.HyperlinkEvent;
 import javax.swing.plaf.basic.BasicTabbedPaneUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,12 +46,13 @@ public class IrcPanel extends PluginPanel {
     @Inject
     private ClientUI clientUI;
     @Inject
-    private OkHttpClient okHttpClient;
+    private PreviewFetcher previewFetcher;
 
     private JTabbedPane tabbedPane;
     public JTextField inputField;
+    private EmojiSuggestions emojiSuggestions;
     @Getter
-    private final Map<String, ChannelPane> channelPanes = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, ChannelBuffer> buffers = Collections.synchronizedMap(new LinkedHashMap<>());
     @Getter
     private NavigationButton navigationButton;
 
@@ -54,39 +60,133 @@ public class IrcPanel extends PluginPanel {
     private BiConsumer<String, String> onChannelJoin;
     private Consumer<String> onChannelLeave;
     private Consumer<Boolean> onReconnect;
+    private BiFunction<String, String, List<String>> nickCompleter;
+    private Consumer<String> onChannelRemoved;
+    private BiConsumer<String, String> onChannelRenamed;
     private Font font;
 
-    public final Map<String, Boolean> unreadMessages = new LinkedHashMap<>();
+    // Read by the overlay from the client thread.
+    private final UnreadModel unread = new UnreadModel();
+    static final Color MENTION_COLOR = new Color(255, 99, 71);
+    static final Color UNREAD_COLOR = new Color(135, 206, 250);
     private String focusedChannel;
+    // Bumped on the EDT whenever the tabs, the selection or their unread or mention state change,
+    // so the overlay only rebuilds its tab layout when something it draws is different.
+    private volatile int tabStateVersion;
     private static final String SYSTEM_TAB = "System";
+    // Has a space, so no channel or nick can share it.
+    static final String SEARCH_TAB = "Search results";
 
     private final JComboBox<String> bufferDropdown = getBufferComboBox();
     private final JTextPane displayPane = new JTextPane();
     private final InputHistory inputHistory = new InputHistory(20);
+    private final TabCompleter tabCompleter = new TabCompleter();
+    private final ScrollbackBudget scrollbackBudget = new ScrollbackBudget();
+    private ScrollbackStore scrollbackStore;
+    private SearchIndex searchIndex;
+
+    // Roughly one display frame; the EDT applies queued messages at most this often.
+    private static final int FRAME_INTERVAL_MS = 16;
+    private static final int SCROLLBACK_PAGE = 100;
+    private static final int HIBERNATE_CHECK_MS = 30_000;
+    private Timer hibernateTimer;
+    private final CoalescingUpdateQueue<PanelLine> updateQueue =
+            new CoalescingUpdateQueue<>(FRAME_INTERVAL_MS, line -> line.getMessage().getChannel(), this::addMessages);
+    // Formats off the EDT; striping by channel keeps each channel's lines in arrival order.
+    private final StripedExecutor formatter = new StripedExecutor("irc-format",
+            Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    // Index warm-up and queries get a thread of their own so a slow one never holds up formatting.
+    private final StripedExecutor searcher = new StripedExecutor("irc-search", 1);
+
+    int getTabStateVersion() {
+        return tabStateVersion;
+    }
+
+    private void tabStateChanged() {
+        // Only ever written on the EDT.
+        tabStateVersion++;
+    }
 
     public ArrayList<String> getChannelNames() {
-        Map<String, ChannelPane> panes = getChannelPanes();
-        synchronized (panes) {
-            return new ArrayList<>(panes.keySet());
+        synchronized (buffers) {
+            return new ArrayList<>(buffers.keySet());
         }
     }
 
     public static final Pattern VALID_LINK = Pattern.compile("(https?://([\\w-]+\\.)+[\\w-]+([\\w-;:,./?%&=]*))");
 
-    private void initializeFlashTimer() {
-        // Change color for different flash
-        Timer flashTimer = new Timer(500, e -> {
-            String currentTab = getCurrentChannel();
-            for (int i = 0; i < tabbedPane.getTabCount(); i++) {
-                String tabTitle = tabbedPane.getTitleAt(i);
-                if (!SYSTEM_TAB.equals(tabTitle) && unreadMessages.getOrDefault(tabTitle, false) && !tabTitle.equals(currentTab)) {
-                    tabbedPane.setForegroundAt(i, new Color(135, 206, 250)); // Change color for different flash
-                } else if (!SYSTEM_TAB.equals(tabTitle) && !unreadMessages.getOrDefault(tabTitle, false)) {
-                    tabbedPane.setForegroundAt(i, Color.white);
+    /**
+     * Recolors a channel's tab and redraws the dropdown and overlay when its unread state flips.
+     * Changes are only ever made on the EDT.
+     */
+    private void unreadChanged(String channel) {
+        int index = tabbedPane.indexOfTab(channel);
+        if (index != -1 && !SYSTEM_TAB.equals(channel)) {
+            tabbedPane.setForegroundAt(index, unread.hasMention(channel) ? MENTION_COLOR
+                    : unread.isUnread(channel) ? UNREAD_COLOR
+                    : Color.WHITE);
+        }
+        bufferDropdown.repaint();
+        tabStateChanged();
+    }
+
+    private void initializeHibernateTimer() {
+        hibernateTimer = new Timer(HIBERNATE_CHECK_MS, e -> hibernateIdleBuffers());
+        hibernateTimer.start();
+    }
+
+    /**
+     * Hibernates every tab other than the selected one that has not been shown for the configured
+     * number of minutes.
+     */
+    private void hibernateIdleBuffers() {
+        if (config.hibernateAfter() <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - config.hibernateAfter() * 60_000L;
+        Component selected = tabbedPane.getSelectedComponent();
+        synchronized (buffers) {
+            for (ChannelBuffer buffer : buffers.values()) {
+                if (buffer.getView() != selected && !buffer.isHibernating() && buffer.getLastShown() < cutoff) {
+                    buffer.hibernate();
                 }
             }
-        });
-        flashTimer.start();
+        }
+        enforceScrollbackBudget();
+    }
+
+    /**
+     * Holds all tabs together to the scrollback budget. Appending only trims a tab to its own
+     * share and leaves hibernated lines alone, so while the total is over the budget the deflated
+     * lines of the tabs shown longest ago are dropped.
+     */
+    private void enforceScrollbackBudget() {
+        long budget = config.scrollbackBudget() * 1024L * 1024L;
+        long total = 0;
+        List<ChannelBuffer> hibernating = new ArrayList<>();
+        synchronized (buffers) {
+            for (ChannelBuffer buffer : buffers.values()) {
+                total += buffer.getBytes();
+                if (buffer.isHibernating()) {
+                    hibernating.add(buffer);
+                }
+            }
+        }
+        if (total <= budget) {
+            return;
+        }
+        hibernating.sort(Comparator.comparingLong(ChannelBuffer::getLastShown));
+        for (ChannelBuffer buffer : hibernating) {
+            if (total <= budget) {
+                break;
+            }
+            total -= buffer.dropHibernated();
+        }
+    }
+
+    private long byteShare(String channel) {
+        return scrollbackBudget.share(channel, getChannelNames(),
+                config.scrollbackBudget() * 1024L * 1024L, config.scrollbackWeights());
     }
 
     public void initializeGui() {
@@ -114,6 +214,7 @@ public class IrcPanel extends PluginPanel {
         controlPanel.setLayout(new BoxLayout(controlPanel, BoxLayout.Y_AXIS));
         JPanel row1 = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JPanel row2 = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JPanel row3 = new JPanel(new BorderLayout());
 
         JButton addButton = new JButton("+");
         JButton removeButton = new JButton("-");
@@ -137,13 +238,10 @@ public class IrcPanel extends PluginPanel {
 
         displayPane.setEditable(false);
 
-        int index = 0;
-        synchronized (channelPanes) {
-            for (Map.Entry<String, ChannelPane> channel : channelPanes.entrySet()) {
-                if (index == 0) {
-                    displayPane.setDocument(channel.getValue().getStyledDocument()); // show first one
-                }
-                index++;
+        synchronized (buffers) {
+            ChannelBuffer first = buffers.values().stream().findFirst().orElse(null);
+            if (first != null && first.isMaterialized()) {
+                displayPane.setDocument(first.getPane().getStyledDocument()); // show first one
             }
         }
         bufferDropdown.addActionListener(this::actionPerformed);
@@ -162,6 +260,12 @@ public class IrcPanel extends PluginPanel {
         row2.add(bufferDropdown);
         controlPanel.add(row1);
         controlPanel.add(row2);
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Search history. Filters: nick:, channel:, after:yyyy-mm-dd, before:yyyy-mm-dd");
+        searchField.addActionListener(e -> search(searchField.getText()));
+        row3.add(new JLabel("Search "), BorderLayout.WEST);
+        row3.add(searchField, BorderLayout.CENTER);
+        controlPanel.add(row3);
         Action originalPasteAction = inputField.getActionMap().get("paste");
         Action customPasteAction = new AbstractAction() {
             @Override
@@ -173,9 +277,15 @@ public class IrcPanel extends PluginPanel {
         };
         inputField.getActionMap().put("paste", customPasteAction);
         setupShortcuts();
+        emojiSuggestions = new EmojiSuggestions(inputField);
         inputField.addActionListener(e -> {
             String message = inputField.getText();
-            if (!message.isEmpty() && onMessageSend != null) {
+            if (!message.isEmpty() && SEARCH_TAB.equals(getCurrentChannel()) && !message.startsWith("/")) {
+                // The search tab has no one to talk to; typing there refines the search.
+                search(message);
+                inputHistory.add(message);
+                inputField.setText("");
+            } else if (!message.isEmpty() && onMessageSend != null) {
                 onMessageSend.accept(getCurrentChannel(), message);
                 inputHistory.add(message);
                 inputField.setText("");
@@ -188,15 +298,14 @@ public class IrcPanel extends PluginPanel {
         SwingUtilities.invokeLater(() -> addChannel("System"));
         tabbedPane.addChangeListener(e -> {
             String newChannel = getCurrentChannel();
-            if (newChannel != null && unreadMessages.containsKey(newChannel)) {
-                unreadMessages.put(newChannel, false);
-                int selectedIndex = tabbedPane.getSelectedIndex();
-                if (selectedIndex != -1) {
-                    tabbedPane.setForegroundAt(selectedIndex, Color.WHITE);
-                }
+            showChannel(newChannel);
+            if (newChannel != null) {
+                unread.markRead(newChannel);
             }
+            tabStateChanged();
         });
-        initializeFlashTimer();
+        unread.addListener(this::unreadChanged);
+        initializeHibernateTimer();
     }
 
     public void cycleChannel() {
@@ -263,9 +372,19 @@ public class IrcPanel extends PluginPanel {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
                 JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (value == null) {
+                    return label;
+                }
 
-                if (unreadMessages.getOrDefault(value.toString(), false)) {
-                    label.setForeground(new Color(135, 206, 250)); // Change color for different flash
+                String channel = value.toString();
+                int count = unread.getCount(channel);
+                if (count > 0) {
+                    label.setText(channel + " (" + count + ")");
+                }
+                if (unread.hasMention(channel)) {
+                    label.setForeground(MENTION_COLOR);
+                } else if (count > 0) {
+                    label.setForeground(UNREAD_COLOR);
                 } else {
                     label.setForeground(Color.white);
                 }
@@ -277,13 +396,16 @@ public class IrcPanel extends PluginPanel {
     }
 
     public void hideAllPreviews() {
-        if (channelPanes != null) {
-            synchronized (channelPanes) {
-                for (ChannelPane pane : channelPanes.values()) {
-                    pane.cancelPreviewManager();
+        synchronized (buffers) {
+            for (ChannelBuffer buffer : buffers.values()) {
+                if (buffer.isMaterialized()) {
+                    buffer.getPane().cancelPreviewManager();
                 }
             }
         }
+        if (emojiSuggestions != null) {
+            emojiSuggestions.hide();
+        }
     }
 
     public NavigationButton generateNavigationButton() {
@@ -297,12 +419,12 @@ public class IrcPanel extends PluginPanel {
     }
 
     public void setFocusedChannel(String channel) {
-        if (channel != null && unreadMessages.containsKey(channel)) {
+        if (channel != null && unread.contains(channel)) {
             int i = 0;
             int index = 0;
-            synchronized (channelPanes) {
-                for (Map.Entry<String, ChannelPane> entry : channelPanes.entrySet()) {
-                    if (entry.getKey().equals(channel)) {
+            synchronized (buffers) {
+                for (String name : buffers.keySet()) {
+                    if (name.equals(channel)) {
                         index = i;
                         break;
                     }
@@ -310,12 +432,12 @@ public class IrcPanel extends PluginPanel {
                 }
             }
 
-            unreadMessages.put(channel, false);
-            tabbedPane.setForegroundAt(index, Color.WHITE);
+            unread.markRead(channel);
             tabbedPane.setSelectedIndex(index);
             bufferDropdown.setSelectedIndex(index);
 
             this.focusedChannel = channel;
+            tabStateChanged();
         }
     }
 
@@ -342,9 +464,11 @@ public class IrcPanel extends PluginPanel {
     private void updateFont() {
         font = new Font(config.fontFamily(), Font.PLAIN, config.fontSize());
         inputField.setFont(font);
-        synchronized (channelPanes) {
-            for (ChannelPane channelPane : channelPanes.values()) {
-                channelPane.setFont(font);
+        synchronized (buffers) {
+            for (ChannelBuffer buffer : buffers.values()) {
+                if (buffer.isMaterialized()) {
+                    buffer.getPane().setFont(font);
+                }
             }
         }
     }
@@ -361,6 +485,87 @@ public class IrcPanel extends PluginPanel {
         this.onReconnect = onReconnect;
     }
 
+    /**
+     * Sets the on-disk history used to prefill and page tabs and to answer searches, or
+     * {@code null} to turn it off.
+     */
+    public void setScrollbackStore(ScrollbackStore scrollbackStore) {
+        this.scrollbackStore = scrollbackStore;
+        this.searchIndex = scrollbackStore != null ? new SearchIndex(scrollbackStore) : null;
+        if (searchIndex != null) {
+            searcher.execute(SEARCH_TAB, searchIndex::warmUp);
+        }
+    }
+
+    /**
+     * Searches stored history off the EDT and shows the hits, oldest first, in the search tab.
+     */
+    public void search(String text) {
+        SearchIndex index = searchIndex;
+        SearchIndex.Query query = SearchIndex.Query.parse(text);
+        if (index == null || query.isEmpty()) {
+            String reason = index == null
+                    ? "Search needs \"Save History to Disk\" to be enabled."
+                    : "Enter words or nick:, channel:, after: or before: filters to search for.";
+            SwingUtilities.invokeLater(() -> showSearchResults(reason, Collections.emptyList()));
+            return;
+        }
+        searcher.execute(SEARCH_TAB, () -> {
+            long start = System.nanoTime();
+            // Leave room for the summary line within the tab's scrollback.
+            int limit = Math.min(SearchIndex.DEFAULT_LIMIT, Math.max(1, config.getMaxScrollback() - 1));
+            List<ScrollbackStore.Entry> hits = index.search(query, limit);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            DateTimeFormatter day = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+            List<PanelLine> lines = new ArrayList<>();
+            for (int i = hits.size() - 1; i >= 0; i--) {
+                IrcMessage hit = hits.get(i).getMessage();
+                IrcMessage line = new IrcMessage(SEARCH_TAB,
+                        day.format(hit.getTimestamp()) + " " + hit.getChannel() + " " + hit.getSender(),
+                        hit.getContent(), hit.getType(), hit.getTimestamp());
+                lines.add(new PanelLine(line, ChannelPane.formatPanelMessage(line, config), -1));
+            }
+            String summary = hits.size() + (hits.size() == 1 ? " result" : " results")
+                    + " for \"" + text.trim() + "\" (" + elapsedMs + " ms)";
+            SwingUtilities.invokeLater(() -> showSearchResults(summary, lines));
+        });
+    }
+
+    private void showSearchResults(String summary, List<PanelLine> lines) {
+        addChannel(SEARCH_TAB);
+        ChannelBuffer buffer = buffers.get(SEARCH_TAB);
+        IrcMessage header = new IrcMessage(SEARCH_TAB, "Search", summary, IrcMessage.MessageType.SYSTEM, Instant.now());
+        List<PanelLine> results = new ArrayList<>(lines);
+        results.add(new PanelLine(header, ChannelPane.formatPanelMessage(header, config), -1));
+        buffer.clear();
+        buffer.append(results, results.size(), Long.MAX_VALUE);
+        setFocusedChannel(SEARCH_TAB);
+        if (tabbedPane.getSelectedComponent() == buffer.getView()) {
+            buffer.sync(config);
+        }
+    }
+
+    /**
+     * @param nickCompleter maps (channel, partial nick) to matching nicks, best first
+     */
+    public void setNickCompleter(BiFunction<String, String, List<String>> nickCompleter) {
+        this.nickCompleter = nickCompleter;
+    }
+
+    /**
+     * @param onChannelRemoved told on the EDT when a channel's tab goes away
+     */
+    public void setChannelRemovedListener(Consumer<String> onChannelRemoved) {
+        this.onChannelRemoved = onChannelRemoved;
+    }
+
+    /**
+     * @param onChannelRenamed told the old and new name when a tab is renamed
+     */
+    public void setChannelRenamedListener(BiConsumer<String, String> onChannelRenamed) {
+        this.onChannelRenamed = onChannelRenamed;
+    }
+
     public String getCurrentChannel() {
         int index = tabbedPane.getSelectedIndex();
         return index != -1 ? tabbedPane.getTitleAt(index) : "System";
@@ -369,53 +574,188 @@ public class IrcPanel extends PluginPanel {
     public void clearCurrentPane() {
         int index = tabbedPane.getSelectedIndex();
         String channel = index != -1 ? tabbedPane.getTitleAt(index) : "System";
-        ChannelPane pane = channelPanes.get(channel);
-        if (pane != null) {
-            pane.clear();
+        ChannelBuffer buffer = buffers.get(channel);
+        if (buffer != null) {
+            buffer.clear();
         }
     }
 
+    /** True if the channel has a highlight the user has not looked at yet. */
+    public boolean hasMention(String channel) {
+        return unread.hasMention(channel);
+    }
+
+    /** True if the channel has messages the user has not looked at yet. */
+    public boolean isUnread(String channel) {
+        return unread.isUnread(channel);
+    }
+
     public boolean isPane(String name) {
         return tabbedPane.indexOfTab(name) != -1;
     }
 
     public void addChannel(String channel) {
-        if (channelPanes.containsKey(channel)) return;
-        ChannelPane pane = new ChannelPane(font, config, okHttpClient);
+        if (buffers.containsKey(channel)) return;
+        ChannelBuffer buffer = new ChannelBuffer(channel);
         bufferDropdown.addItem(channel);
 
-        JScrollPane scrollPane = new JScrollPane(pane);
-        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> pane.cancelPreviewManager());
-
-        channelPanes.put(channel, pane);
-        unreadMessages.put(channel, false);
-        tabbedPane.addTab(channel, new JScrollPane(pane));
-        if (config.autofocusOnNewTab() || channel.equals(config.channel()) || channelPanes.size() == 2) {
+        buffers.put(channel, buffer);
+        unread.add(channel);
+        tabbedPane.addTab(channel, buffer.getView());
+        buffer.getView().getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (buffer.isMaterialized()) {
+                buffer.getPane().cancelPreviewManager();
+            }
+            JScrollBar bar = buffer.getView().getVerticalScrollBar();
+            if (bar.getValue() == bar.getMinimum() && bar.getMaximum() > bar.getVisibleAmount()) {
+                loadOlder(buffer, SCROLLBACK_PAGE, true);
+            } else if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) {
+                buffer.releasePaged();
+            }
+        });
+        loadOlder(buffer, config.getMaxScrollback(), false);
+        tabStateChanged();
+        if (config.autofocusOnNewTab() || channel.equals(config.channel()) || buffers.size() == 2) {
             tabbedPane.setSelectedIndex(tabbedPane.getTabCount() - 1);
             this.setFocusedChannel(channel);
         }
     }
 
     public void removeChannel(String channel) {
-        if (!channelPanes.containsKey(channel) || channel.equals("System")) return;
+        if (!buffers.containsKey(channel) || channel.equals("System")) return;
         int index = tabbedPane.indexOfTab(channel);
         if (index == -1) return;
         tabbedPane.removeTabAt(index);
-        channelPanes.remove(channel);
-        unreadMessages.remove(channel);
+        buffers.remove(channel);
+        unread.remove(channel);
         bufferDropdown.removeItem(channel);
+        tabStateChanged();
+        if (onChannelRemoved != null) {
+            onChannelRemoved.accept(channel);
+        }
     }
 
-    public void addMessage(IrcMessage message) {
-        ChannelPane pane = channelPanes.get(message.getChannel());
-        if (pane == null) {
-            addChannel(message.getChannel());
-            pane = channelPanes.get(message.getChannel());
+    /**
+     * Queues a message for display. Safe to call from any thread; the message is formatted on a
+     * worker and then applied on the EDT in per-channel batches at most once per frame.
+     */
+    public void queueMessage(IrcMessage message) {
+        ScrollbackStore store = scrollbackStore;
+        formatter.execute(message.getChannel(), () -> {
+            long address = store != null ? store.append(message) : -1;
+            updateQueue.offer(new PanelLine(message, ChannelPane.formatPanelMessage(message, config), address));
+        });
+    }
+
+    /**
+     * Reads up to {@code count} stored lines older than anything the buffer holds on the
+     * channel's formatting worker, then prepends them on the EDT.
+     */
+    private void loadOlder(ChannelBuffer buffer, int count, boolean paging) {
+        ScrollbackStore store = scrollbackStore;
+        String channel = channelOf(buffer);
+        if (store == null || channel == null || channel.equals(SYSTEM_TAB) || channel.equals(SEARCH_TAB)
+                || buffer.isLoading() || buffer.isExhausted() || buffer.isHibernating()) {
+            return;
         }
-        if (!message.getChannel().equals(focusedChannel)) {
-            unreadMessages.put(message.getChannel(), true);
+        long before = buffer.oldestAddress();
+        buffer.setLoading(true);
+        formatter.execute(channel, () -> {
+            List<PanelLine> lines = new ArrayList<>();
+            for (ScrollbackStore.Entry entry : store.readBefore(channel, before, count)) {
+                IrcMessage message = entry.getMessage();
+                lines.add(new PanelLine(message, ChannelPane.formatPanelMessage(message, config), entry.getAddress()));
+            }
+            SwingUtilities.invokeLater(() -> {
+                buffer.setLoading(false);
+                if (lines.size() < count) {
+                    buffer.setExhausted();
+                }
+                // Lines stored while we were reading may already have arrived live; if the
+                // buffer was trimmed meanwhile the page no longer lines up, so drop it.
+                long oldest = buffer.oldestAddress();
+                if (before != ScrollbackStore.END && oldest != before) {
+                    return;
+                }
+                lines.removeIf(line -> line.getAddress() >= oldest);
+                buffer.prepend(lines, paging, config);
+            });
+        });
+    }
+
+    private String channelOf(ChannelBuffer buffer) {
+        synchronized (buffers) {
+            for (Map.Entry<String, ChannelBuffer> entry : buffers.entrySet()) {
+                if (entry.getValue() == buffer) {
+                    return entry.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    public void shutDown() {
+        formatter.shutdown();
+        searcher.shutdown();
+        updateQueue.clear();
+        // Running timers are referenced by Swing's timer queue and would keep this panel alive.
+        if (hibernateTimer != null) {
+            hibernateTimer.stop();
+        }
+        synchronized (buffers) {
+            for (ChannelBuffer buffer : buffers.values()) {
+                if (buffer.isMaterialized()) {
+                    buffer.getPane().stopTimers();
+                }
+            }
         }
-        pane.appendMessage(message, config);
+    }
+
+    private void addMessages(String channel, List<PanelLine> messages) {
+        ChannelBuffer buffer = buffers.get(channel);
+        if (buffer == null) {
+            addChannel(channel);
+            buffer = buffers.get(channel);
+        }
+        if (!channel.equals(focusedChannel)) {
+            unread.arrived(channel, messages.size(), messages.stream().anyMatch(line -> line.getMessage().isHighlight()));
+        }
+        buffer.append(messages, config.getMaxScrollback(), byteShare(channel));
+        enforceScrollbackBudget();
+        // Background tabs only record; they catch up when next shown.
+        if (tabbedPane.getSelectedComponent() == buffer.getView()) {
+            buffer.sync(config);
+            if (config.prefetchPreviews() && config.hoverPreviewImages()) {
+                prefetchImages(messages);
+            }
+        }
+    }
+
+    private void prefetchImages(List<PanelLine> messages) {
+        for (PanelLine line : messages) {
+            Matcher matcher = VALID_LINK.matcher(line.getMessage().getContent());
+            while (matcher.find()) {
+                String url = matcher.group(1);
+                if (PreviewFetcher.isImageUrl(url)) {
+                    previewFetcher.prefetch(url);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the selected tab's pane on first show and applies whatever it missed while hidden.
+     */
+    private void showChannel(String channel) {
+        ChannelBuffer buffer = channel != null ? buffers.get(channel) : null;
+        if (buffer == null) {
+            return;
+        }
+        buffer.wake(config.getMaxScrollback(), byteShare(channel));
+        if (!buffer.isMaterialized()) {
+            buffer.attach(new ChannelPane(font, config, previewFetcher));
+        }
+        buffer.sync(config);
     }
 
     private void promptAddChannel() {
@@ -431,22 +771,26 @@ public class IrcPanel extends PluginPanel {
     }
 
     public void renameChannel(String oldName, String newName) {
-        if (!channelPanes.containsKey(oldName) || channelPanes.containsKey(newName)) {
+        if (!buffers.containsKey(oldName) || buffers.containsKey(newName)) {
             return;
         }
         int index = tabbedPane.indexOfTab(oldName);
         if (index == -1) {
             return;
         }
-        synchronized (channelPanes) {
-            renameKeyInPlace(channelPanes, oldName, newName);
+        synchronized (buffers) {
+            renameKeyInPlace(buffers, oldName, newName);
         }
-        renameKeyInPlace(unreadMessages, oldName, newName);
+        unread.rename(oldName, newName);
         tabbedPane.setTitleAt(index, newName);
         renameBufferDropdownItem(oldName, newName);
         if (oldName.equals(focusedChannel)) {
             focusedChannel = newName;
         }
+        tabStateChanged();
+        if (onChannelRenamed != null) {
+            onChannelRenamed.accept(oldName, newName);
+        }
     }
 
     static <V> void renameKeyInPlace(Map<String, V> map, String oldKey, String newKey) {
@@ -502,16 +846,13 @@ public class IrcPanel extends PluginPanel {
 
     private void actionPerformed(ActionEvent e) {
         int idx = bufferDropdown.getSelectedIndex();
-        int i = 0;
-        synchronized (channelPanes) {
-            for (Map.Entry<String, ChannelPane> channel : channelPanes.entrySet()) {
-                if (i == idx) {
-                    displayPane.setDocument(channel.getValue().getStyledDocument());
-                    this.setFocusedChannel(channel.getKey());
-                    break;
-                }
-
-                i++;
+        List<String> channels = getChannelNames();
+        if (idx >= 0 && idx < channels.size()) {
+            String selected = channels.get(idx);
+            this.setFocusedChannel(selected);
+            ChannelBuffer buffer = buffers.get(selected);
+            if (buffer != null && buffer.isMaterialized()) {
+                displayPane.setDocument(buffer.getPane().getStyledDocument());
             }
         }
         hideAllPreviews();
@@ -520,21 +861,37 @@ public class IrcPanel extends PluginPanel {
 
     public static class ChannelPane extends JTextPane {
         private final IrcConfig config;
-        private ArrayList<String> messageLog;
+        // Number of trailing body children that hold log lines; anything before them is the
+        // parser's implied paragraph.
+        private int documentLines;
         private static final Pattern UNDERLINE = Pattern.compile("\u001F([^\u001F\u000F]+)[\u001F\u000F]?");
         private static final Pattern ITALIC = Pattern.compile("\u001D([^\u001D\u000F]+)[\u001D\u000F]?");
         private static final Pattern BOLD = Pattern.compile("\u0002([^\u0002\u000F]+)[\u0002\u000F]?");
         private static final Pattern COLORS = Pattern.compile("(?:\u0003\\d\\d?(?:,\\d\\d?)?\\s*)?\u000F?\u0003(\\d\\d?)(?:,(\\d\\d?))?([^\u0003\u000F]+)\u000F?");
+        // Palette colors readable on the dark panel, picked from by nick.
+        private static final String[] NICK_COLOR_IDS = {"02", "03", "04", "05", "06", "07", "08", "09", "10", "11", "12", "13"};
         private static final Pattern STRIP_CODES = Pattern.compile("\u0002|\u0003(\\d\\d?(?:,\\d\\d)?)?|\u001D|\u0015|\u000F");
         private final PreviewManager previewManager;
-
-        ChannelPane(Font font, IrcConfig config, OkHttpClient okHttpClient) {
+        // Thumbnail views in the document, swept for eviction once scrolling settles.
+        private final Set<ThumbnailView> thumbnails = new HashSet<>();
+        private final Timer thumbnailSweep = new Timer(THUMBNAIL_SWEEP_MS, e -> evictDistantThumbnails());
+        private static final int THUMBNAIL_SWEEP_MS = 250;
+        // Repaints thumbnails whose fetch was turned away, so the visible ones ask again.
+        private final Timer thumbnailRetry = new Timer(THUMBNAIL_RETRY_MS, e -> repaint());
+        private static final int THUMBNAIL_RETRY_MS = 1000;
+        // Thumbnails further than this many viewport heights from the visible rows are dropped.
+        private static final int THUMBNAIL_KEEP_SCREENS = 2;
+        private JViewport sweptViewport;
+
+        ChannelPane(Font font, IrcConfig config, PreviewFetcher previewFetcher) {
             this.config = config;
-            this.previewManager = new PreviewManager(this, okHttpClient);
-            setContentType("text/html");
+            this.previewManager = new PreviewManager(this, previewFetcher);
+            thumbnailSweep.setRepeats(false);
+            thumbnailRetry.setRepeats(false);
+            setEditorKit(new ChannelEditorKit(previewFetcher));
             setFont(font);
             setEditable(false);
-            messageLog = new ArrayList<>();
+            resetDocument();
 
             addHyperlinkListener(e -> {
                 if (e.getURL() != null) {
@@ -561,65 +918,204 @@ public class IrcPanel extends PluginPanel {
             });
         }
 
-        void appendMessage(IrcMessage message, IrcConfig config) {
-            String formattedMessage = formatPanelMessage(message, config);
-            messageLog.add(formattedMessage);
-            if (messageLog.size() > config.getMaxScrollback()) {
-                messageLog.remove(0);
+        @Override
+        public void addNotify() {
+            super.addNotify();
+            if (getParent() instanceof JViewport && getParent() != sweptViewport) {
+                sweptViewport = (JViewport) getParent();
+                sweptViewport.addChangeListener(e -> {
+                    if (!thumbnails.isEmpty()) {
+                        thumbnailSweep.restart();
+                    }
+                });
             }
-            SwingUtilities.invokeLater(() -> {
-                setText("<html><body style='color:" + ColorUtil.toHexColor(ColorScheme.TEXT_COLOR) + ";'>" + String.join("", messageLog) + "</body></html>");
-                setCaretPosition(getDocument().getLength());
-            });
         }
 
-        private String formatPanelMessage(IrcMessage message, IrcConfig config) {
+        void addThumbnail(ThumbnailView view) {
+            thumbnails.add(view);
+        }
+
+        void removeThumbnail(ThumbnailView view) {
+            thumbnails.remove(view);
+        }
+
+        /**
+         * Repaints shortly, so thumbnails still in view request their images again.
+         */
+        void retryThumbnails() {
+            if (!thumbnailRetry.isRunning()) {
+                thumbnailRetry.start();
+            }
+        }
+
+        private void evictDistantThumbnails() {
+            Rectangle visible = getVisibleRect();
+            int margin = visible.height * THUMBNAIL_KEEP_SCREENS;
+            int top = visible.y - margin;
+            int bottom = visible.y + visible.height + margin;
+            for (ThumbnailView view : thumbnails) {
+                try {
+                    Rectangle r = modelToView2D(view.getStartOffset()).getBounds();
+                    if (r.y + ThumbnailView.HEIGHT < top || r.y > bottom) {
+                        view.evict();
+                    }
+                } catch (BadLocationException e) {
+                    view.evict();
+                }
+            }
+        }
+
+        /**
+         * Appends a batch of pre-formatted lines as a single document update, trimming the oldest
+         * lines past the scrollback limit. Returns false if the document could not be patched
+         * incrementally, in which case the caller should {@link #renderAll} instead. Must be called
+         * on the EDT.
+         */
+        boolean appendMessages(List<PanelLine> messages, int limit) {
+            StringBuilder html = new StringBuilder();
+            for (PanelLine line : messages) {
+                html.append(line.getHtml());
+            }
+            if (!insertLines(html.toString(), messages.size())) {
+                return false;
+            }
+            int overflow = documentLines - limit;
+            if (overflow > 0 && !removeLeadingLines(overflow)) {
+                return false;
+            }
+            setCaretPosition(getDocument().getLength());
+            return true;
+        }
+
+        /**
+         * Inserts lines older than everything shown above the first log line. Returns false if
+         * the document could not be patched. Must be called on the EDT.
+         */
+        boolean prependMessages(List<PanelLine> messages) {
+            if (documentLines == 0) {
+                return appendMessages(messages, Integer.MAX_VALUE);
+            }
+            StringBuilder html = new StringBuilder();
+            for (PanelLine line : messages) {
+                html.append(line.getHtml());
+            }
+            try {
+                HTMLDocument doc = (HTMLDocument) getDocument();
+                Element body = getBody(doc);
+                doc.insertBeforeStart(body.getElement(body.getElementCount() - documentLines), html.toString());
+                documentLines += messages.size();
+                return true;
+            } catch (BadLocationException | IOException | RuntimeException e) {
+                log.debug("Incremental prepend failed, re-rendering", e);
+                return false;
+            }
+        }
+
+        /** Replaces the whole document with the given messages. Must be called on the EDT. */
+        void renderAll(List<PanelLine> messages) {
+            StringBuilder html = new StringBuilder();
+            for (PanelLine line : messages) {
+                html.append(line.getHtml());
+            }
+            setText(documentHtml(html.toString()));
+            documentLines = messages.size();
+            setCaretPosition(getDocument().getLength());
+        }
+
+        private boolean insertLines(String html, int count) {
+            try {
+                HTMLDocument doc = (HTMLDocument) getDocument();
+                doc.insertBeforeEnd(getBody(doc), html);
+                documentLines += count;
+                return true;
+            } catch (BadLocationException | IOException | RuntimeException e) {
+                log.debug("Incremental insert failed, re-rendering", e);
+                return false;
+            }
+        }
+
+        private boolean removeLeadingLines(int count) {
+            HTMLDocument doc = (HTMLDocument) getDocument();
+            Element body = getBody(doc);
+            int first = body.getElementCount() - documentLines;
+            int remove = Math.min(count, documentLines);
+            if (first < 0 || remove <= 0) {
+                return remove == 0;
+            }
+            try {
+                int start = body.getElement(first).getStartOffset();
+                int end = body.getElement(first + remove - 1).getEndOffset();
+                doc.remove(start, end - start);
+                documentLines -= remove;
+                return true;
+            } catch (BadLocationException e) {
+                log.debug("Incremental trim failed, re-rendering", e);
+                return false;
+            }
+        }
+
+        private static Element getBody(HTMLDocument doc) {
+            return doc.getElement(doc.getDefaultRootElement(), StyleConstants.NameAttribute, HTML.Tag.BODY);
+        }
+
+        private void resetDocument() {
+            setText(documentHtml(""));
+            documentLines = 0;
+        }
+
+        private static String documentHtml(String body) {
+            return "<html><body>" + body + "</body></html>";
+        }
+
+        /**
+         * Renders a message to its side-panel HTML. Touches no Swing state, so it is safe to call
+         * from the formatting workers.
+         */
+        static String formatPanelMessage(IrcMessage message, IrcConfig config) {
             if (message.getType() == IrcMessage.MessageType.HISTORY_SEPARATOR) {
-                return "<div style='color: #808080; text-align: center;'>--- Begin of chat ---</div>";
+                return "<div class='" + ChannelEditorKit.SEPARATOR_CLASS + "'>--- Begin of chat ---</div>";
             }
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
             String timeStamp = "";
             if (config.timestamp()) {
                 timeStamp = "[" + formatter.format(message.getTimestamp()) + "] ";
             }
-            String color;
-            switch (message.getType()) {
-                case SYSTEM:
-                case NICK_CHANGE:
-                case KICK:
-                case MODE:
-                    color = ColorUtil.toHexColor(ColorScheme.BRAND_ORANGE);
-                    break;
-                case JOIN:
-                    color = ColorUtil.toHexColor(ColorScheme.PROGRESS_INPROGRESS_COLOR);
-                    break;
-                case PART:
-                case QUIT:
-                    color = ColorUtil.toHexColor(ColorScheme.PROGRESS_ERROR_COLOR);
-                    break;
-                case TOPIC:
-                    color = ColorUtil.toHexColor(ColorScheme.TEXT_COLOR);
-                    break;
-                default:
-                    color = ColorUtil.toHexColor(ColorScheme.LIGHT_GRAY_COLOR);
-            }
+            StringBuilder html = new StringBuilder("<div class='")
+                    .append(ChannelEditorKit.typeClass(message.getType())).append("'>").append(timeStamp);
             String sender = escapeHtml4(message.getSender());
             if (config.colorizedNicks()) {
-                String[] viableColorIds = new String[]{"02", "03", "04", "05", "06", "07", "08", "09", "10", "11", "12", "13"};
-                String colorId = viableColorIds[Math.abs(sender.hashCode()) % viableColorIds.length];
-                String senderColor = htmlColorById(colorId);
-                sender = String.format("<font style=\"color:%s\">%s</font>", senderColor, sender);
+                String colorId = NICK_COLOR_IDS[Math.abs(sender.hashCode()) % NICK_COLOR_IDS.length];
+                html.append("<span class='").append(ChannelEditorKit.colorClass(colorId)).append("'>")
+                        .append(sender).append("</span>");
+            } else {
+                html.append(sender);
             }
-            return String.format("<div style='color: %s'>%s%s: %s</div>", color, timeStamp, sender, formatMessage(message.getContent()));
+            return html.append(": ").append(formatMessage(message.getContent(), config.inlineThumbnails()))
+                    .append("</div>").toString();
         }
 
-        private String formatMessage(String message) {
+        private static String formatMessage(String message, boolean thumbnails) {
             String msg = formatColorCodes(escapeHtml4(message));
             Matcher matcher = VALID_LINK.matcher(msg);
-            return convertModernEmojis(matcher.replaceAll("<a href=\"$1\">$1</a>"));
+            String html = convertModernEmojis(matcher.replaceAll("<a href=\"$1\">$1</a>"));
+            if (!thumbnails) {
+                return html;
+            }
+            StringBuilder images = null;
+            matcher.reset();
+            while (matcher.find()) {
+                if (PreviewFetcher.isImageUrl(matcher.group(1))) {
+                    if (images == null) {
+                        images = new StringBuilder(html).append("<br>");
+                    }
+                    images.append("<img class='").append(ChannelEditorKit.THUMBNAIL_CLASS)
+                            .append("' src=\"").append(matcher.group(1)).append("\">");
+                }
+            }
+            return images != null ? images.toString() : html;
         }
 
-        private String formatColorCodes(String message) {
+        private static String formatColorCodes(String message) {
             Matcher underline_matcher = UNDERLINE.matcher(message);
             message = underline_matcher.replaceAll("<u>$1</u>");
             Matcher italic_matcher = ITALIC.matcher(message);
@@ -787,65 +1283,43 @@ public class IrcPanel extends PluginPanel {
         }
 
         static String colorSpan(String fgId, String bgId, String text) {
-            StringBuilder style = new StringBuilder("color:").append(htmlColorById(fgId));
-            String content = text;
-            if (hasPaletteColor(bgId)) {
-                style.append(";background-color:").append(htmlColorById(bgId));
-                content = text.replace(" ", "&nbsp;");
-            }
-            return "<span style=\"" + style + "\">" + content + "</span>";
-        }
-
-        private static boolean hasPaletteColor(String id) {
-            if (id == null) {
-                return false;
-            }
-            try {
-                int code = Integer.parseInt(id);
-                return code >= 0 && code <= 98;
-            } catch (NumberFormatException e) {
-                return false;
+            String span = "<span class='" + ChannelEditorKit.colorClass(fgId) + "'>";
+            String background = ChannelEditorKit.backgroundClass(bgId);
+            if (background == null) {
+                return span + text + "</span>";
             }
+            // Swing keeps one attribute set per inline tag and matches one class per element, so the
+            // background goes on a font tag around the span.
+            return "<font class='" + background + "'>" + span + text.replace(" ", "&nbsp;") + "</span></font>";
         }
 
         public void clear() {
-            this.setText("");
-            messageLog = new ArrayList<>();
+            resetDocument();
         }
 
         public void cancelPreviewManager() {
             this.previewManager.cancelPreviewManager();
         }
+
+        void stopTimers() {
+            thumbnailSweep.stop();
+            thumbnailRetry.stop();
+        }
     }
 
-    private static final Pattern MODERN_EMOJI_PATTERN = Pattern.compile("[" + "\uD83E\uDD70-\uD83E\uDDFF" +
-            "\uD83E\uDE00-\uD83E\uDEFF" +
-            "\uD83E\uDF00-\uD83E\uDFFF" +
-            "\uD83E\uDD00-\uD83E\uDD6F" +
-            "\uD83E\uDEC0-\uD83E\uDECF" + "\uD83E\uDED0-\uD83E\uDEFF" +
-            "\uD83E\uDF00-\uD83E\uDF2F" +
-            "\uD83E\uDF30-\uD83E\uDF5F" +
-            "\uD83E\uDF60-\uD83E\uDF8F" +
-            "\uFE0F" +
-            "]" + "|\uD83C[\uDFFB-\uDFFF]" +
-            "|\uD83E[\uDDB0-\uDDBF]"
-    );
+    /**
+     * Emojis from the Supplemental Symbols and Pictographs block onwards, which the panel's fonts
+     * cannot draw, so they are shown as their aliases instead.
+     */
+    private static boolean isModernEmoji(int codePoint) {
+        return (codePoint >= 0x1F900 && codePoint <= 0x1FBFF)
+                || (codePoint >= 0x1F3FB && codePoint <= 0x1F3FF)
+                || codePoint == 0xFE0F;
+    }
 
     public static String convertModernEmojis(String text) {
         if (text == null) return "";
-        Matcher matcher = MODERN_EMOJI_PATTERN.matcher(text);
-        if (!matcher.find()) {
-            return text;
-        }
-        matcher.reset();
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String modernEmoji = matcher.group();
-            String replacement = EmojiParser.parseToAliases(modernEmoji, EmojiParser.FitzpatrickAction.PARSE);
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
+        return EmojiParser.parseToAliases(text, EmojiParser.FitzpatrickAction.PARSE, IrcPanel::isModernEmoji);
     }
 
     private enum IrcShortcut {
@@ -915,6 +1389,34 @@ public class IrcPanel extends PluginPanel {
                 recallHistory(inputHistory.next());
             }
         });
+
+        // Tab would otherwise move focus out of the input box.
+        inputField.setFocusTraversalKeysEnabled(false);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_TAB, 0), "completeNick");
+        actionMap.put("completeNick", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                TabCompleter.Completion completion = tabCompleter.complete(
+                        inputField.getText(), inputField.getCaretPosition(), IrcPanel.this::completionCandidates);
+                if (completion != null) {
+                    inputField.setText(completion.text);
+                    inputField.setCaretPosition(completion.caret);
+                }
+            }
+        });
+    }
+
+    private List<String> completionCandidates(String word) {
+        if (word.startsWith("#")) {
+            List<String> matches = new ArrayList<>();
+            for (String channel : getChannelNames()) {
+                if (channel.regionMatches(true, 0, word, 0, word.length())) {
+                    matches.add(channel);
+                }
+            }
+            return matches;
+        }
+        return nickCompleter != null ? nickCompleter.apply(getCurrentChannel(), word) : null;
     }
 
     private void recallHistory(String text) {
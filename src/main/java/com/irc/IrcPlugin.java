@@ -18,6 +18,7 @@ import net.runelite.client.chat.ChatColorType;
 import net.runelite.client.chat.ChatMessageBuilder;
 import net.runelite.client.chat.ChatMessageManager;
 import net.runelite.client.chat.QueuedMessage;
+import net.runelite.client.RuneLite;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
@@ -39,8 +40,10 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,11 +66,18 @@ public class IrcPlugin extends Plugin {
     @Inject
     private KeyManager keyManager;
     private IrcOverlay overlay;
+    private IrcMessageOverlay messageOverlay;
     @Nullable
     private IrcAdapter ircAdapter;
     private IrcPanel panel;
+    @Nullable
+    private ScrollbackStore scrollbackStore;
     @Inject
     private EmojiService emojiService;
+    @Inject
+    private ScheduledExecutorService executor;
+    @Inject
+    private PreviewCache previewCache;
 
     private static final Pattern VALID_WINKS = Pattern.compile("^;([opdOPD)(<>]|[-_];)");
     private static final Pattern STRIP_STYLES = Pattern.compile("\u0002|\u0003(\\d\\d?(,\\d\\d)?)?|\u001D|\u0015|\u000F");
@@ -77,6 +87,7 @@ public class IrcPlugin extends Plugin {
     @Override
     protected void startUp() {
         setupPanel();
+        openScrollbackStore();
         if (config.sidePanel()) {
             clientToolbar.addNavigation(panel.getNavigationButton());
         }
@@ -134,7 +145,11 @@ public class IrcPlugin extends Plugin {
         });
         overlay = new IrcOverlay(client, panel, config, keyManager);
         overlayManager.add(overlay);
-        emojiService.initialize();
+        messageOverlay = new IrcMessageOverlay(panel, config);
+        overlayManager.add(messageOverlay);
+        panel.setChannelRemovedListener(messageOverlay::removeChannel);
+        panel.setChannelRenamedListener(messageOverlay::renameChannel);
+        emojiService.initializeAsync(executor);
         connectToIrc();
         joinDefaultChannel();
     }
@@ -143,8 +158,10 @@ public class IrcPlugin extends Plugin {
     protected void shutDown() {
         if (panel != null) {
             clientToolbar.removeNavigation(panel.getNavigationButton());
+            panel.shutDown();
             panel = null;
         }
+        closeScrollbackStore();
         if (ircAdapter != null) {
             ircAdapter.disconnect("Plugin shutting down");
             ircAdapter = null;
@@ -154,6 +171,11 @@ public class IrcPlugin extends Plugin {
             overlayManager.remove(overlay);
             overlay = null;
         }
+        if (messageOverlay != null) {
+            overlayManager.remove(messageOverlay);
+            messageOverlay.shutDown();
+            messageOverlay = null;
+        }
         channelPasswords.clear();
     }
 
@@ -173,7 +195,10 @@ public class IrcPlugin extends Plugin {
         }
 
         ircAdapter = new IrcAdapter();
-        ircAdapter.initialize(config, this::processMessage, panel, initialNick);
+        ircAdapter.initialize(config, this::processMessage, panel, initialNick, executor);
+        if (scrollbackStore != null) {
+            ircAdapter.getClient().setHistoryCursor(scrollbackStore::lastTimestamp);
+        }
         ircAdapter.connect();
     }
 
@@ -188,6 +213,34 @@ public class IrcPlugin extends Plugin {
         panel.initializeGui();
     }
 
+    private void openScrollbackStore() {
+        if (!config.persistScrollback() || scrollbackStore != null) {
+            return;
+        }
+        File directory = new File(RuneLite.RUNELITE_DIR, "irc" + File.separator + config.server().getHostname());
+        scrollbackStore = new ScrollbackStore(directory, config.scrollbackDiskLimit() * 1024L * 1024L);
+        if (panel != null) {
+            panel.setScrollbackStore(scrollbackStore);
+        }
+        if (ircAdapter != null) {
+            ircAdapter.getClient().setHistoryCursor(scrollbackStore::lastTimestamp);
+        }
+    }
+
+    private void closeScrollbackStore() {
+        if (scrollbackStore == null) {
+            return;
+        }
+        if (panel != null) {
+            panel.setScrollbackStore(null);
+        }
+        if (ircAdapter != null) {
+            ircAdapter.getClient().setHistoryCursor(null);
+        }
+        scrollbackStore.close();
+        scrollbackStore = null;
+    }
+
     private void joinDefaultChannel() {
         String channel;
         if (config.channel().isEmpty()) {
@@ -207,7 +260,7 @@ public class IrcPlugin extends Plugin {
                         && message.length() > config.prefix().length())) {
             handleCommand(message);
         } else {
-            sendMessage(channel, message);
+            sendMessage(channel, EmojiParser.parseToUnicode(message));
         }
     }
 
@@ -244,7 +297,7 @@ public class IrcPlugin extends Plugin {
 
             case "go":
                 if (!arg.isEmpty()) {
-                    for (String channel : panel.getChannelPanes().keySet()) {
+                    for (String channel : panel.getChannelNames()) {
                         if (channel.contains(arg)) {
                             panel.setFocusedChannel(channel);
                             break;
@@ -261,7 +314,7 @@ public class IrcPlugin extends Plugin {
                     String msg = msgParts[1];
 
                     SwingUtilities.invokeLater(() -> panel.addChannel(target));
-                    sendMessage(target, msg);
+                    sendMessage(target, EmojiParser.parseToUnicode(msg));
                 }
                 if (panel != null && msgParts.length > 0) {
                     panel.addChannel(msgParts[0]);
@@ -270,7 +323,7 @@ public class IrcPlugin extends Plugin {
 
             case "me":
                 if (!arg.isEmpty()) {
-                    sendAction(panel.getCurrentChannel(), arg);
+                    sendAction(panel.getCurrentChannel(), EmojiParser.parseToUnicode(arg));
                 }
                 break;
 
@@ -381,6 +434,10 @@ public class IrcPlugin extends Plugin {
                 panel.clearCurrentPane();
                 break;
 
+            case "search":
+                panel.search(arg);
+                break;
+
             case "help":
                 showCommandHelp();
                 break;
@@ -458,6 +515,7 @@ public class IrcPlugin extends Plugin {
                 "/go <channel> - Focus on this channel (uses regex)",
                 "/join <#channel> - Join a channel",
                 "/part [#channel] - Leave a channel (aliased as /leave)",
+                "/search <words> [nick:] [channel:] [after:yyyy-mm-dd] [before:yyyy-mm-dd] - Search saved history",
                 "/me <action> - Send action message",
                 "/mode [#channel] [+modes|-modes] - Modify channel modes",
                 "/msg <nick> <message> - Send private message",
@@ -603,6 +661,11 @@ public class IrcPlugin extends Plugin {
             }
         }
 
+        String text = EmojiParser.parseToAliases(stripStyles(message.getContent()));
+        if (messageOverlay != null && messageOverlay.isEnabled()) {
+            messageOverlay.add(message, text);
+        }
+
         if (client.getGameState() == GameState.LOGGED_IN) {
             boolean activeChannelCondition = panel == null || panel.getCurrentChannel().equals(message.getChannel());
             boolean isSystemEvent = message.getChannel().equals("System") && Arrays.binarySearch(chatBoxEvents, message.getType()) > -1;
@@ -615,9 +678,7 @@ public class IrcPlugin extends Plugin {
                         .runeLiteFormattedMessage(
                                 new ChatMessageBuilder()
                                         .append(ChatColorType.NORMAL)
-                                        .append(EmojiParser.parseToAliases(
-                                                stripStyles(message.getContent())
-                                        ))
+                                        .append(text)
                                         .build())
                         .timestamp((int) (message.getTimestamp().getEpochSecond()))
                         .build());
@@ -625,7 +686,7 @@ public class IrcPlugin extends Plugin {
         }
 
         if (panel != null) {
-            SwingUtilities.invokeLater(() -> panel.addMessage(message));
+            panel.queueMessage(message);
         }
     }
 
@@ -649,6 +710,19 @@ public class IrcPlugin extends Plugin {
                     clientToolbar.addNavigation(panel.generateNavigationButton());
                 }
             }
+        } else if ("persistScrollback".equals(configChanged.getKey())) {
+            if (config.persistScrollback()) {
+                openScrollbackStore();
+            } else {
+                closeScrollbackStore();
+            }
+        } else if ("scrollbackDiskLimit".equals(configChanged.getKey())) {
+            if (scrollbackStore != null) {
+                scrollbackStore.setMaxDiskBytes(config.scrollbackDiskLimit() * 1024L * 1024L);
+            }
+        } else if ("previewCacheMemory".equals(configChanged.getKey())
+                || "previewDiskCache".equals(configChanged.getKey())) {
+            executor.execute(previewCache::updateConfig);
         } else if ("overlayEnabled".equals(configChanged.getKey())) {
             if (overlay != null) {
                 overlay.setEnabled(config.overlayEnabled());
@@ -659,6 +733,12 @@ public class IrcPlugin extends Plugin {
                 overlay = new IrcOverlay(client, panel, config, keyManager);
                 overlayManager.add(overlay);
             }
+        } else if ("messageOverlay".equals(configChanged.getKey())
+                || "messageOverlayLines".equals(configChanged.getKey())
+                || "overlayMaxWidth".equals(configChanged.getKey())) {
+            if (messageOverlay != null) {
+                messageOverlay.updateConfig();
+            }
         }
     }
 
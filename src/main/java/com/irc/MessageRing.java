@@ -0,0 +1,165 @@
+package com.irc;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-wise ring of one channel's messages: timestamps and store addresses as longs, senders
+ * as ids into a per-ring intern table, the type as a byte and content as UTF-8. Lines are turned
+ * back into {@link IrcMessage}s only when they have to be rendered, and adding or trimming at
+ * either end is O(1). Not thread-safe.
+ */
+class MessageRing {
+
+    // Array slots, content array header and reference for one line.
+    private static final int LINE_OVERHEAD = 48;
+    // Map entry, boxed id, string header and list slot for one interned sender, plus 2 bytes a char.
+    private static final int SENDER_OVERHEAD = 96;
+    private static final byte HIGHLIGHT = (byte) 0x80;
+    private static final IrcMessage.MessageType[] TYPES = IrcMessage.MessageType.values();
+
+    private long[] timestamps = new long[16];
+    private long[] addresses = new long[16];
+    private int[] senders = new int[16];
+    private byte[] types = new byte[16];
+    private byte[][] contents = new byte[16][];
+    // Physical index of the oldest line.
+    private int head;
+    private int size;
+    // Estimated heap held by the lines and their interned senders, for the scrollback budget.
+    @Getter
+    private long bytes;
+
+    // Senders of the held lines; an id is freed once no held line refers to it, and reused.
+    private final Map<String, Integer> senderIds = new HashMap<>();
+    private final List<String> senderNames = new ArrayList<>();
+    private int[] senderRefs = new int[16];
+    private final ArrayDeque<Integer> freeSenderIds = new ArrayDeque<>();
+
+    int size() {
+        return size;
+    }
+
+    void addLast(IrcMessage message, long address) {
+        grow();
+        set((head + size) % capacity(), message, address);
+        size++;
+    }
+
+    void addFirst(IrcMessage message, long address) {
+        grow();
+        head = (head - 1 + capacity()) % capacity();
+        set(head, message, address);
+        size++;
+    }
+
+    void removeFirst() {
+        bytes -= LINE_OVERHEAD + contents[head].length;
+        contents[head] = null;
+        release(senders[head]);
+        head = (head + 1) % capacity();
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(contents, null);
+        head = 0;
+        size = 0;
+        bytes = 0;
+        senderIds.clear();
+        senderNames.clear();
+        Arrays.fill(senderRefs, 0);
+        freeSenderIds.clear();
+    }
+
+    /** Store address of the i-th oldest line, or -1 if it was not stored. */
+    long address(int i) {
+        return addresses[slot(i)];
+    }
+
+    IrcMessage message(int i, String channel) {
+        int slot = slot(i);
+        return new IrcMessage(channel,
+                senderNames.get(senders[slot]),
+                new String(contents[slot], StandardCharsets.UTF_8),
+                TYPES[types[slot] & ~HIGHLIGHT],
+                Instant.ofEpochMilli(timestamps[slot]),
+                (types[slot] & HIGHLIGHT) != 0);
+    }
+
+    private void set(int slot, IrcMessage message, long address) {
+        timestamps[slot] = message.getTimestamp().toEpochMilli();
+        addresses[slot] = address;
+        senders[slot] = intern(message.getSender());
+        types[slot] = (byte) (message.getType().ordinal() | (message.isHighlight() ? HIGHLIGHT : 0));
+        contents[slot] = message.getContent().getBytes(StandardCharsets.UTF_8);
+        bytes += LINE_OVERHEAD + contents[slot].length;
+    }
+
+    private int intern(String sender) {
+        Integer id = senderIds.get(sender);
+        if (id == null) {
+            if (freeSenderIds.isEmpty()) {
+                id = senderNames.size();
+                senderNames.add(sender);
+            } else {
+                id = freeSenderIds.pop();
+                senderNames.set(id, sender);
+            }
+            senderIds.put(sender, id);
+            if (id >= senderRefs.length) {
+                senderRefs = Arrays.copyOf(senderRefs, senderRefs.length * 2);
+            }
+            bytes += SENDER_OVERHEAD + sender.length() * 2L;
+        }
+        senderRefs[id]++;
+        return id;
+    }
+
+    private void release(int id) {
+        if (--senderRefs[id] > 0) {
+            return;
+        }
+        String sender = senderNames.set(id, null);
+        senderIds.remove(sender);
+        freeSenderIds.push(id);
+        bytes -= SENDER_OVERHEAD + sender.length() * 2L;
+    }
+
+    private int slot(int i) {
+        return (head + i) % capacity();
+    }
+
+    private int capacity() {
+        return contents.length;
+    }
+
+    /** Doubles the columns when full, unrolling the ring so the oldest line is at index 0. */
+    private void grow() {
+        if (size < capacity()) {
+            return;
+        }
+        int capacity = capacity() * 2;
+        timestamps = unroll(timestamps, new long[capacity]);
+        addresses = unroll(addresses, new long[capacity]);
+        senders = unroll(senders, new int[capacity]);
+        types = unroll(types, new byte[capacity]);
+        contents = unroll(contents, new byte[capacity][]);
+        head = 0;
+    }
+
+    private <T> T unroll(T from, T to) {
+        int tail = capacity() - head;
+        System.arraycopy(from, head, to, 0, tail);
+        System.arraycopy(from, 0, to, tail, head);
+        return to;
+    }
+}
@@ -0,0 +1,113 @@
+package com.irc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled highlight and ignore rules, evaluated once per incoming message.
+ *
+ * Keywords and the user's own nick share a single {@link AhoCorasick} automaton; ignore masks
+ * ({@code nick!user@host} globs using {@code *} and {@code ?}, any part of which may be left
+ * out) are folded into one case-insensitive regex. Instances are immutable and cheap to swap when the inputs change.
+ */
+class MessageRules {
+
+    enum Verdict {
+        NONE, HIGHLIGHT, IGNORE
+    }
+
+    private final String nick;
+    private final String keywords;
+    private final String masks;
+    private final AhoCorasick highlights;
+    private final Pattern ignored;
+
+    private MessageRules(String nick, String keywords, String masks) {
+        this.nick = nick;
+        this.keywords = keywords;
+        this.masks = masks;
+
+        List<String> patterns = splitList(keywords);
+        if (nick != null && !nick.isEmpty()) {
+            patterns.add(nick);
+        }
+        this.highlights = new AhoCorasick(patterns);
+        this.ignored = compileMasks(splitList(masks));
+    }
+
+    static MessageRules compile(String nick, String keywords, String masks) {
+        return new MessageRules(nick, keywords, masks);
+    }
+
+    boolean isCompiledFrom(String nick, String keywords, String masks) {
+        return Objects.equals(this.nick, nick)
+                && Objects.equals(this.keywords, keywords)
+                && Objects.equals(this.masks, masks);
+    }
+
+    /**
+     * @param hostmask the sender as {@code nick!user@host}, or a bare nick when that is all we have
+     */
+    Verdict evaluate(String hostmask, String content) {
+        if (ignored != null && hostmask != null && ignored.matcher(hostmask).matches()) {
+            return Verdict.IGNORE;
+        }
+        return highlights.matches(content) ? Verdict.HIGHLIGHT : Verdict.NONE;
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        if (value == null) {
+            return items;
+        }
+        for (String item : value.split("[,\\n]")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) {
+                items.add(trimmed);
+            }
+        }
+        return items;
+    }
+
+    private static Pattern compileMasks(List<String> masks) {
+        if (masks.isEmpty()) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String mask : masks) {
+            // A bare nick (or nick!user) ignores that nick from any host, and user@host anyone
+            // connecting from there.
+            boolean hasNick = mask.indexOf('!') >= 0;
+            boolean hasHost = mask.indexOf('@') >= 0;
+            if (!hasNick && !hasHost) {
+                mask = mask + "!*@*";
+            } else if (!hasHost) {
+                mask = mask + "@*";
+            } else if (!hasNick) {
+                mask = "*!" + mask;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append("(?:");
+            int literalStart = 0;
+            for (int i = 0; i < mask.length(); i++) {
+                char c = mask.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > literalStart) {
+                        regex.append(Pattern.quote(mask.substring(literalStart, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    literalStart = i + 1;
+                }
+            }
+            if (literalStart < mask.length()) {
+                regex.append(Pattern.quote(mask.substring(literalStart)));
+            }
+            regex.append(')');
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+}
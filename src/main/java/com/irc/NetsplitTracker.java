@@ -0,0 +1,162 @@
+package com.irc;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collapses netsplits, and the netjoins that heal them, into one summary line per channel.
+ *
+ * A quit belongs to a split when its reason is the "server1 server2" pair of two different
+ * hostnames the server sends, or when it arrived inside an IRCv3 netsplit batch. Affected nicks
+ * are buffered for a short window and reported together; when they come back, their joins are
+ * collapsed the same way. Fed from the IRC thread, summaries are emitted on the given scheduler,
+ * never on the EDT.
+ */
+class NetsplitTracker {
+
+    // A dotted hostname whose last label is alphabetic, so "1.2 1.3" is not a split.
+    private static final String HOST = "(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z]{2,}";
+    private static final Pattern SPLIT_QUIT = Pattern.compile("(" + HOST + ") (" + HOST + ")", Pattern.CASE_INSENSITIVE);
+    private static final int WINDOW_MS = 2000;
+    // How long a split nick's rejoin still counts as part of the netjoin.
+    private static final long REJOIN_WINDOW_MS = 30 * 60 * 1000L;
+    private static final int MAX_LISTED = 30;
+
+    private static final class Summary {
+        // Server time of the first line summarized.
+        final Instant time;
+        final Set<String> servers = new LinkedHashSet<>();
+        final List<String> nicks = new ArrayList<>();
+
+        Summary(Instant time) {
+            this.time = time;
+        }
+    }
+
+    private final Consumer<IrcMessage> sink;
+    private final ScheduledExecutorService scheduler;
+    // Guarded by this.
+    private ScheduledFuture<?> pendingFlush;
+    private Map<String, Summary> quits = new LinkedHashMap<>();
+    private Map<String, Summary> joins = new LinkedHashMap<>();
+    // folded nick -> time it split off
+    private final Map<String, Long> splitNicks = new HashMap<>();
+
+    NetsplitTracker(Consumer<IrcMessage> sink, ScheduledExecutorService scheduler) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+    }
+
+    static boolean isSplitQuit(String reason) {
+        if (reason == null) {
+            return false;
+        }
+        Matcher matcher = SPLIT_QUIT.matcher(reason);
+        return matcher.matches() && !matcher.group(1).equalsIgnoreCase(matcher.group(2));
+    }
+
+    /**
+     * @param channels comma separated channels the nick shared with us
+     * @param time when the server says the nick quit
+     */
+    synchronized void quit(String nick, String servers, String channels, Instant time) {
+        splitNicks.put(NickIndex.fold(nick), System.currentTimeMillis());
+        if (channels == null || channels.isEmpty()) {
+            return;
+        }
+        for (String channel : channels.split(",")) {
+            add(quits, channel, servers, nick, time);
+        }
+    }
+
+    /**
+     * Records a join if it belongs to a netjoin, either because the server said so or because
+     * the nick split off recently.
+     *
+     * @return true if the join was absorbed into a summary and should not be shown on its own
+     */
+    synchronized boolean join(String nick, String channel, String servers, boolean inBatch, Instant time) {
+        Long splitAt = splitNicks.get(NickIndex.fold(nick));
+        if (!inBatch && (splitAt == null || System.currentTimeMillis() - splitAt > REJOIN_WINDOW_MS)) {
+            return false;
+        }
+        add(joins, channel, servers, nick, time);
+        return true;
+    }
+
+    synchronized void clear() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        quits.clear();
+        joins.clear();
+        splitNicks.clear();
+    }
+
+    private void add(Map<String, Summary> pending, String channel, String servers, String nick, Instant time) {
+        Summary summary = pending.computeIfAbsent(channel, k -> new Summary(time));
+        if (servers != null && !servers.isEmpty()) {
+            summary.servers.add(servers);
+        }
+        summary.nicks.add(nick);
+        if (pendingFlush == null) {
+            pendingFlush = scheduler.schedule(this::flush, WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        Map<String, Summary> splitQuits;
+        Map<String, Summary> splitJoins;
+        synchronized (this) {
+            splitQuits = quits;
+            splitJoins = joins;
+            quits = new LinkedHashMap<>();
+            joins = new LinkedHashMap<>();
+            pendingFlush = null;
+
+            long cutoff = System.currentTimeMillis() - REJOIN_WINDOW_MS;
+            for (Iterator<Long> it = splitNicks.values().iterator(); it.hasNext(); ) {
+                if (it.next() < cutoff) {
+                    it.remove();
+                }
+            }
+        }
+
+        for (Map.Entry<String, Summary> entry : splitQuits.entrySet()) {
+            Summary summary = entry.getValue();
+            sink.accept(new IrcMessage(entry.getKey(), "Netsplit", describe(summary, "quit"), IrcMessage.MessageType.QUIT, summary.time));
+        }
+        for (Map.Entry<String, Summary> entry : splitJoins.entrySet()) {
+            Summary summary = entry.getValue();
+            sink.accept(new IrcMessage(entry.getKey(), "Netjoin", describe(summary, "rejoined"), IrcMessage.MessageType.JOIN, summary.time));
+        }
+    }
+
+    private static String describe(Summary summary, String verb) {
+        StringBuilder sb = new StringBuilder();
+        if (!summary.servers.isEmpty()) {
+            sb.append(String.join(", ", summary.servers)).append(": ");
+        }
+        int count = summary.nicks.size();
+        sb.append(count).append(count == 1 ? " user " : " users ").append(verb).append(" (");
+        sb.append(String.join(", ", summary.nicks.subList(0, Math.min(count, MAX_LISTED))));
+        if (count > MAX_LISTED) {
+            sb.append(", and ").append(count - MAX_LISTED).append(" more");
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,128 @@
+package com.irc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Members of one channel, kept sorted by their case-folded nick so a completion is a range
+ * lookup rather than a scan of the whole member list. Recent speakers are tracked separately
+ * (bounded) and offered first.
+ *
+ * Updated from the IRC thread and read from the EDT.
+ */
+class NickIndex {
+
+    private static final int RECENT_SPEAKERS = 64;
+
+    // folded nick -> nick as the server spells it
+    private final NavigableMap<String, String> members = new ConcurrentSkipListMap<>();
+    // folded nicks in speaking order, most recent last
+    private final LinkedHashMap<String, Boolean> recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_SPEAKERS;
+        }
+    };
+
+    void add(String nick) {
+        if (nick != null && !nick.isEmpty()) {
+            members.put(fold(nick), nick);
+        }
+    }
+
+    void remove(String nick) {
+        String folded = fold(nick);
+        members.remove(folded);
+        synchronized (recent) {
+            recent.remove(folded);
+        }
+    }
+
+    void rename(String oldNick, String newNick) {
+        String oldFolded = fold(oldNick);
+        if (members.remove(oldFolded) == null) {
+            return;
+        }
+        members.put(fold(newNick), newNick);
+        synchronized (recent) {
+            if (recent.remove(oldFolded) != null) {
+                recent.put(fold(newNick), Boolean.TRUE);
+            }
+        }
+    }
+
+    void spoke(String nick) {
+        String folded = fold(nick);
+        if (members.containsKey(folded)) {
+            synchronized (recent) {
+                recent.put(folded, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Nicks starting with {@code prefix} (case-insensitively), most recent speakers first and
+     * the rest in alphabetical order, at most {@code limit} of them.
+     */
+    List<String> complete(String prefix, int limit) {
+        String folded = fold(prefix);
+        List<String> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        List<String> speakers;
+        synchronized (recent) {
+            speakers = new ArrayList<>(recent.keySet());
+        }
+        for (int i = speakers.size() - 1; i >= 0 && result.size() < limit; i--) {
+            String speaker = speakers.get(i);
+            String nick = members.get(speaker);
+            if (nick != null && speaker.startsWith(folded) && seen.add(speaker)) {
+                result.add(nick);
+            }
+        }
+
+        Iterator<Map.Entry<String, String>> range = members
+                .subMap(folded, true, folded + Character.MAX_VALUE, false)
+                .entrySet().iterator();
+        while (range.hasNext() && result.size() < limit) {
+            Map.Entry<String, String> entry = range.next();
+            if (seen.add(entry.getKey())) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** RFC 1459 case mapping, which is what SwiftIRC advertises. */
+    static String fold(String nick) {
+        StringBuilder sb = new StringBuilder(nick.length());
+        for (int i = 0; i < nick.length(); i++) {
+            char c = nick.charAt(i);
+            switch (c) {
+                case '[':
+                    c = '{';
+                    break;
+                case ']':
+                    c = '}';
+                    break;
+                case '\\':
+                    c = '|';
+                    break;
+                case '~':
+                    c = '^';
+                    break;
+                default:
+                    c = Character.toLowerCase(c);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
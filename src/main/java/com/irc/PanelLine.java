@@ -0,0 +1,14 @@
+package com.irc;
+
+import lombok.Value;
+
+/**
+ * A message paired with the side-panel HTML it renders to, so the EDT only has to insert it.
+ */
+@Value
+class PanelLine {
+    IrcMessage message;
+    String html;
+    // Position in the ScrollbackStore, or -1 if the message was not stored.
+    long address;
+}
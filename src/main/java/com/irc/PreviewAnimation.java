@@ -0,0 +1,101 @@
+package com.irc;
+
+import javax.swing.Icon;
+import javax.swing.Timer;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Plays an animated preview as an icon. Every running animation is driven by one shared Swing
+ * timer, which is rescheduled for the next frame due across all of them and stops when none are
+ * running, so idle or static previews cost nothing. EDT only.
+ */
+class PreviewAnimation implements Icon {
+
+    private static final Set<PreviewAnimation> RUNNING = new LinkedHashSet<>();
+    private static final Timer TIMER = new Timer(0, e -> tick());
+
+    static {
+        TIMER.setRepeats(false);
+    }
+
+    private final PreviewImage image;
+    private Component owner;
+    private int frame;
+    private long nextFrameAt;
+
+    PreviewAnimation(PreviewImage image) {
+        this.image = image;
+    }
+
+    /**
+     * Starts advancing frames, repainting {@code owner} on each.
+     */
+    void start(Component owner) {
+        this.owner = owner;
+        nextFrameAt = System.currentTimeMillis() + image.getDelays()[frame];
+        RUNNING.add(this);
+        schedule(System.currentTimeMillis());
+    }
+
+    void stop() {
+        RUNNING.remove(this);
+        owner = null;
+        if (RUNNING.isEmpty()) {
+            TIMER.stop();
+        }
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        g.drawImage(image.getFrames()[frame], x, y, null);
+    }
+
+    @Override
+    public int getIconWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getIconHeight() {
+        return image.getHeight();
+    }
+
+    private static void tick() {
+        long now = System.currentTimeMillis();
+        for (PreviewAnimation animation : RUNNING) {
+            if (animation.advance(now)) {
+                animation.owner.repaint();
+            }
+        }
+        schedule(now);
+    }
+
+    private boolean advance(long now) {
+        if (now < nextFrameAt) {
+            return false;
+        }
+        int[] delays = image.getDelays();
+        // Skip frames that were due while the EDT was busy instead of fast-forwarding through them.
+        do {
+            frame = (frame + 1) % delays.length;
+            nextFrameAt += delays[frame];
+        } while (nextFrameAt <= now);
+        return true;
+    }
+
+    private static void schedule(long now) {
+        if (RUNNING.isEmpty()) {
+            TIMER.stop();
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (PreviewAnimation animation : RUNNING) {
+            next = Math.min(next, animation.nextFrameAt);
+        }
+        TIMER.setInitialDelay((int) Math.max(0, next - now));
+        TIMER.restart();
+    }
+}
@@ -0,0 +1,188 @@
+package com.irc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.imageio.ImageIO;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Plugin-wide cache of image previews, already decoded and scaled to preview size, so hovering
+ * the same link in any tab is instant.
+ *
+ * The memory tier is weighed by pixel bytes. Behind it is an optional on-disk tier of PNGs under
+ * the RuneLite cache directory, trimmed oldest-used first, which lets previews survive restarts
+ * without touching the network or decoding the original again. Animations only live in memory.
+ */
+@Slf4j
+@Singleton
+class PreviewCache {
+
+    private static final File DIRECTORY = new File(RuneLite.CACHE_DIR, "irc-previews");
+
+    private final IrcConfig config;
+    private volatile Cache<String, PreviewImage> images;
+    private volatile long diskLimit;
+    // Bytes currently on disk, or -1 until the directory has been measured.
+    private long diskBytes = -1;
+
+    @Inject
+    PreviewCache(IrcConfig config) {
+        this.config = config;
+        this.images = build(config.previewCacheMemory() * 1024L * 1024L);
+        this.diskLimit = config.previewDiskCache() * 1024L * 1024L;
+    }
+
+    /**
+     * Applies changed size limits: the memory tier is rebuilt with the new weight, keeping what
+     * still fits, and the disk tier is trimmed if it is now over. Must not be called on the EDT.
+     */
+    void updateConfig() {
+        Cache<String, PreviewImage> resized = build(config.previewCacheMemory() * 1024L * 1024L);
+        resized.putAll(images.asMap());
+        images = resized;
+        synchronized (this) {
+            diskLimit = config.previewDiskCache() * 1024L * 1024L;
+            if (diskLimit <= 0) {
+                return;
+            }
+            if (diskBytes < 0) {
+                measureDisk();
+            }
+            if (diskBytes > diskLimit) {
+                trimDisk();
+            }
+        }
+    }
+
+    private static Cache<String, PreviewImage> build(long maximumWeight) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String url, PreviewImage image) -> (int) Math.min(Integer.MAX_VALUE, image.weight()))
+                .build();
+    }
+
+    /**
+     * Memory tier only; cheap enough for the EDT.
+     */
+    PreviewImage getIfPresent(String url) {
+        return images.getIfPresent(url);
+    }
+
+    /**
+     * Memory tier, then disk. Disk hits are promoted to memory. Must not be called on the EDT.
+     */
+    PreviewImage get(String url) {
+        PreviewImage cached = images.getIfPresent(url);
+        if (cached != null || diskLimit <= 0) {
+            return cached;
+        }
+        File file = file(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedImage image = null;
+        try {
+            image = ImageIO.read(file);
+        } catch (IOException e) {
+            log.debug("Unable to read cached preview {}", file, e);
+        }
+        if (image == null) {
+            delete(file);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        cached = PreviewImage.of(image);
+        images.put(url, cached);
+        return cached;
+    }
+
+    /**
+     * Stores a scaled preview in memory and, if enabled and it is a still image, on disk. Must not
+     * be called on the EDT.
+     */
+    void put(String url, PreviewImage image) {
+        images.put(url, image);
+        if (diskLimit <= 0 || image.isAnimated()) {
+            return;
+        }
+        File file = file(url);
+        long previous = file.length();
+        try {
+            if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+                return;
+            }
+            ImageIO.write(image.getFirstFrame(), "png", file);
+        } catch (IOException e) {
+            log.debug("Unable to cache preview for {}", url, e);
+            return;
+        }
+        synchronized (this) {
+            if (diskBytes < 0) {
+                measureDisk();
+            } else {
+                diskBytes += file.length() - previous;
+            }
+            if (diskBytes > diskLimit) {
+                trimDisk();
+            }
+        }
+    }
+
+    void invalidate(String url) {
+        images.invalidate(url);
+        if (diskLimit > 0) {
+            delete(file(url));
+        }
+    }
+
+    private void measureDisk() {
+        diskBytes = 0;
+        for (File cached : listFiles()) {
+            diskBytes += cached.length();
+        }
+    }
+
+    /**
+     * Deletes least recently used files until the tier is back under nine tenths of its limit.
+     */
+    private void trimDisk() {
+        File[] files = listFiles();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes <= diskLimit * 9 / 10) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private synchronized void delete(File file) {
+        long length = file.length();
+        if (file.delete() && diskBytes >= 0) {
+            diskBytes -= length;
+        }
+    }
+
+    private static File[] listFiles() {
+        File[] files = DIRECTORY.listFiles((dir, name) -> name.endsWith(".png"));
+        return files != null ? files : new File[0];
+    }
+
+    private static File file(String url) {
+        return new File(DIRECTORY, Hashing.sha256().hashString(url, StandardCharsets.UTF_8) + ".png");
+    }
+}
@@ -0,0 +1,258 @@
+package com.irc;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import org.w3c.dom.NodeList;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes images straight to preview size. The reader is given the stream itself rather than a
+ * buffered copy, and skips source pixels according to the header dimensions, so a huge
+ * screenshot never exists at full resolution in memory.
+ *
+ * GIFs are read a frame at a time. Each frame is drawn scaled onto a preview-sized canvas as soon
+ * as it is read, and only the composed result is kept. An animation stops growing at
+ * {@link #MAX_FRAMES} frames or {@link #MAX_ANIMATION_BYTES} bytes and loops over what it has.
+ */
+final class PreviewDecoder {
+
+    static final int MAX_FRAMES = 100;
+    static final long MAX_ANIMATION_BYTES = 24L * 1024 * 1024;
+    // Browsers show frames asking for 10ms or less for 100ms; many GIFs rely on it.
+    private static final int DEFAULT_DELAY_MS = 100;
+    private static final String GIF_IMAGE_METADATA = "javax_imageio_gif_image_1.0";
+    private static final String GIF_STREAM_METADATA = "javax_imageio_gif_stream_1.0";
+
+    private PreviewDecoder() {
+    }
+
+    /**
+     * @return the image in the stream, scaled to fit within the given size, or null if no
+     * installed reader understands it
+     */
+    static PreviewImage decode(InputStream in, int maxWidth, int maxHeight) throws IOException {
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                if ("gif".equalsIgnoreCase(reader.getFormatName())) {
+                    reader.setInput(stream, true, false);
+                    return decodeFrames(reader, maxWidth, maxHeight);
+                }
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = subsampling(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return PreviewImage.of(scale(reader.read(0, param), maxWidth, maxHeight));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static PreviewImage decodeFrames(ImageReader reader, int maxWidth, int maxHeight) throws IOException {
+        List<BufferedImage> frames = new ArrayList<>();
+        int[] delays = new int[MAX_FRAMES];
+        // Sized from the logical screen in the header, before any frame is read.
+        IIOMetadataNode screen = logicalScreen(reader);
+        int screenWidth = intAttribute(screen, "logicalScreenWidth");
+        int screenHeight = intAttribute(screen, "logicalScreenHeight");
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = screenWidth > 0 && screenHeight > 0
+                ? subsampling(screenWidth, screenHeight, maxWidth, maxHeight)
+                : 1;
+        param.setSourceSubsampling(step, step, 0, 0);
+        BufferedImage canvas = null;
+        Graphics2D g = null;
+        double scale = 1;
+        long bytes = 0;
+        try {
+            for (int i = 0; i < MAX_FRAMES; i++) {
+                IIOImage frame;
+                try {
+                    frame = reader.readAll(i, param);
+                } catch (IndexOutOfBoundsException e) {
+                    break;
+                } catch (IOException e) {
+                    // A truncated or corrupt tail still leaves the frames before it.
+                    if (frames.isEmpty()) {
+                        throw e;
+                    }
+                    break;
+                }
+                BufferedImage raw = (BufferedImage) frame.getRenderedImage();
+                IIOMetadataNode metadata = (IIOMetadataNode) frame.getMetadata().getAsTree(GIF_IMAGE_METADATA);
+                IIOMetadataNode descriptor = child(metadata, "ImageDescriptor");
+                IIOMetadataNode control = child(metadata, "GraphicControlExtension");
+                int left = intAttribute(descriptor, "imageLeftPosition");
+                int top = intAttribute(descriptor, "imageTopPosition");
+                int frameWidth = Math.max(raw.getWidth(), intAttribute(descriptor, "imageWidth"));
+                int frameHeight = Math.max(raw.getHeight(), intAttribute(descriptor, "imageHeight"));
+
+                if (canvas == null) {
+                    int width = Math.max(left + frameWidth, screenWidth);
+                    int height = Math.max(top + frameHeight, screenHeight);
+                    scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+                    canvas = new BufferedImage(Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale)),
+                            BufferedImage.TYPE_INT_ARGB);
+                    g = canvas.createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                }
+                long frameBytes = (long) canvas.getWidth() * canvas.getHeight() * 4;
+                if (bytes + frameBytes > MAX_ANIMATION_BYTES && !frames.isEmpty()) {
+                    break;
+                }
+
+                String disposal = control != null ? control.getAttribute("disposalMethod") : "none";
+                BufferedImage previous = "restoreToPrevious".equals(disposal) ? copy(canvas) : null;
+                int x = (int) Math.round(left * scale);
+                int y = (int) Math.round(top * scale);
+                int w = Math.max(1, (int) Math.round((left + frameWidth) * scale) - x);
+                int h = Math.max(1, (int) Math.round((top + frameHeight) * scale) - y);
+                g.drawImage(raw, x, y, w, h, null);
+
+                frames.add(copy(canvas));
+                int delay = control != null ? intAttribute(control, "delayTime") * 10 : 0;
+                delays[i] = delay <= 10 ? DEFAULT_DELAY_MS : delay;
+                bytes += frameBytes;
+
+                if ("restoreToBackgroundColor".equals(disposal)) {
+                    g.setComposite(AlphaComposite.Clear);
+                    g.fillRect(x, y, w, h);
+                    g.setComposite(AlphaComposite.SrcOver);
+                } else if (previous != null) {
+                    g.setComposite(AlphaComposite.Src);
+                    g.drawImage(previous, 0, 0, null);
+                    g.setComposite(AlphaComposite.SrcOver);
+                }
+            }
+        } finally {
+            if (g != null) {
+                g.dispose();
+            }
+        }
+        if (frames.isEmpty()) {
+            return null;
+        }
+        return new PreviewImage(frames.toArray(new BufferedImage[0]), Arrays.copyOf(delays, frames.size()));
+    }
+
+    private static IIOMetadataNode logicalScreen(ImageReader reader) throws IOException {
+        IIOMetadata metadata = reader.getStreamMetadata();
+        return metadata != null
+                ? child((IIOMetadataNode) metadata.getAsTree(GIF_STREAM_METADATA), "LogicalScreenDescriptor")
+                : null;
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+        NodeList children = node.getElementsByTagName(name);
+        return children.getLength() > 0 ? (IIOMetadataNode) children.item(0) : null;
+    }
+
+    private static int intAttribute(IIOMetadataNode node, String name) {
+        if (node == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * The largest source step that still leaves at least the preview's resolution to scale from.
+     */
+    static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+        return Math.max(1, Math.max(width / maxWidth, height / maxHeight));
+    }
+
+    static BufferedImage scale(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min(
+                (double) maxWidth / image.getWidth(),
+                (double) maxHeight / image.getHeight()
+        ));
+        if (scale == 1.0 && image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        int scaledWidth = Math.max(1, (int) (image.getWidth() * scale));
+        int scaledHeight = Math.max(1, (int) (image.getHeight() * scale));
+
+        BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = scaledImage.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        g2d.dispose();
+        return scaledImage;
+    }
+
+    /**
+     * Fails the read once more than {@code limit} bytes have come through, for downloads whose
+     * Content-Length was missing or wrong.
+     */
+    static final class CappedInputStream extends FilterInputStream {
+        private long remaining;
+
+        CappedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new IOException("Image exceeds the preview download limit");
+            }
+        }
+    }
+}
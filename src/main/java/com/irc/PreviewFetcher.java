@@ -0,0 +1,349 @@
+package com.irc;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.awt.image.BufferedImage;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches image previews through the shared {@link PreviewCache}: cache first, then the network,
+ * decoded straight to preview size.
+ *
+ * Every request for a URL shares one in-flight fetch, whether it comes from a hover or a
+ * prefetch. A fetch nobody waits for any more is cancelled along with its HTTP call. Downloads
+ * and decoding run on this class's own bounded pools, never on the EDT or OkHttp's dispatcher.
+ *
+ * Prefetches of images posted in the open tab have a pool of their own with a short queue that
+ * drops new work when full. They share a bandwidth limit, which is lifted once a hover joins the
+ * fetch, so a burst of image links cannot flood the connection.
+ *
+ * Inline thumbnails also fetch on a pool of their own, at low priority, so a screen full of them
+ * never keeps hovers waiting. They are scaled down on one more worker, never on the EDT.
+ */
+@Slf4j
+@Singleton
+class PreviewFetcher {
+
+    static final int MAX_PREVIEW_WIDTH = 500;
+    static final int MAX_PREVIEW_HEIGHT = 500;
+    // Larger downloads are skipped, whether the server says so up front or not.
+    private static final long MAX_DOWNLOAD_BYTES = 10L * 1024 * 1024;
+    private static final Pattern IMAGE_URL_PATTERN = Pattern.compile("\\.(png|jpe?g|bmp|gif)(\\?.*)?$", Pattern.CASE_INSENSITIVE);
+
+    private static final int HOVER_THREADS = 2;
+    private static final int HOVER_QUEUE = 8;
+    private static final int PREFETCH_THREADS = 2;
+    private static final int PREFETCH_QUEUE = 16;
+    private static final int THUMBNAIL_THREADS = 2;
+    private static final int THUMBNAIL_QUEUE = 32;
+    private static final double PREFETCH_BYTES_PER_SECOND = 512 * 1024;
+
+    private final OkHttpClient okHttpClient;
+    private final PreviewCache cache;
+    private final ThreadPoolExecutor hoverExecutor;
+    private final ThreadPoolExecutor prefetchExecutor;
+    private final ThreadPoolExecutor thumbnailExecutor;
+    // Unbounded, since a dependent stage it rejected would never complete; its tasks are small.
+    private final ThreadPoolExecutor thumbnailScaler;
+    private final RateLimiter prefetchBandwidth = RateLimiter.create(PREFETCH_BYTES_PER_SECOND);
+    // Fetches that have not finished, by URL. Guarded by itself.
+    private final Map<String, Fetch> inFlight = new HashMap<>();
+
+    @Inject
+    PreviewFetcher(OkHttpClient okHttpClient, PreviewCache cache) {
+        this.okHttpClient = okHttpClient;
+        this.cache = cache;
+        this.hoverExecutor = executor(HOVER_THREADS, new ArrayBlockingQueue<>(HOVER_QUEUE),
+                "irc-preview-%d", Thread.NORM_PRIORITY);
+        this.prefetchExecutor = executor(PREFETCH_THREADS, new ArrayBlockingQueue<>(PREFETCH_QUEUE),
+                "irc-preview-prefetch-%d", Thread.NORM_PRIORITY);
+        this.thumbnailExecutor = executor(THUMBNAIL_THREADS, new ArrayBlockingQueue<>(THUMBNAIL_QUEUE),
+                "irc-preview-thumbnail-%d", Thread.MIN_PRIORITY);
+        this.thumbnailScaler = executor(1, new LinkedBlockingQueue<>(),
+                "irc-preview-thumbnail-scale-%d", Thread.MIN_PRIORITY);
+    }
+
+    private static ThreadPoolExecutor executor(int threads, BlockingQueue<Runnable> queue, String nameFormat, int priority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).setPriority(priority).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static boolean isImageUrl(String url) {
+        return IMAGE_URL_PATTERN.matcher(url).find();
+    }
+
+    PreviewImage getIfPresent(String imageUrl) {
+        return cache.getIfPresent(imageUrl);
+    }
+
+    /**
+     * Starts loading the preview, or joins the fetch already under way. Cancelling the returned
+     * future withdraws this request; the download is cancelled once no request is left.
+     *
+     * @return a future of the scaled preview, null if it could not be fetched or decoded
+     */
+    CompletableFuture<PreviewImage> request(String imageUrl) {
+        return request(imageUrl, hoverExecutor);
+    }
+
+    /**
+     * Like {@link #request}, for an inline thumbnail: a new fetch runs on the thumbnail pool, and
+     * the first frame is scaled to fit the given size on a worker. The future fails with a
+     * {@link RejectedExecutionException} if the thumbnail pool is full.
+     *
+     * @return a future of the thumbnail, null if it could not be fetched or decoded
+     */
+    CompletableFuture<BufferedImage> requestThumbnail(String imageUrl, int maxWidth, int maxHeight) {
+        CompletableFuture<PreviewImage> preview = request(imageUrl, thumbnailExecutor);
+        CompletableFuture<BufferedImage> thumbnail = preview.thenApplyAsync(image -> image != null
+                ? PreviewDecoder.scale(image.getFirstFrame(), maxWidth, maxHeight)
+                : null, thumbnailScaler);
+        // Cancelling the scaled stage would not reach the fetch, so cancel the preview with it.
+        thumbnail.whenComplete((image, error) -> {
+            if (thumbnail.isCancelled()) {
+                preview.cancel(false);
+            }
+        });
+        return thumbnail;
+    }
+
+    private CompletableFuture<PreviewImage> request(String imageUrl, Executor executor) {
+        PreviewImage cached = cache.getIfPresent(imageUrl);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Fetch fetch;
+        synchronized (inFlight) {
+            fetch = inFlight.get(imageUrl);
+            if (fetch == null) {
+                fetch = start(imageUrl, false, executor);
+            }
+            fetch.waiters++;
+            fetch.throttled = false;
+        }
+
+        Fetch joined = fetch;
+        CompletableFuture<PreviewImage> request = new CompletableFuture<>();
+        fetch.result.whenComplete((image, error) -> {
+            if (error != null) {
+                request.completeExceptionally(error);
+            } else {
+                request.complete(image);
+            }
+        });
+        request.whenComplete((image, error) -> {
+            if (request.isCancelled()) {
+                release(joined);
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Loads the preview in the background unless it is cached or already on its way.
+     */
+    void prefetch(String imageUrl) {
+        if (cache.getIfPresent(imageUrl) != null) {
+            return;
+        }
+        synchronized (inFlight) {
+            if (!inFlight.containsKey(imageUrl)) {
+                // The prefetch itself never lets go, so it runs to completion once started.
+                start(imageUrl, true, prefetchExecutor).waiters++;
+            }
+        }
+    }
+
+    // Called with inFlight held.
+    private Fetch start(String imageUrl, boolean throttled, Executor executor) {
+        Fetch fetch = new Fetch(imageUrl, throttled);
+        inFlight.put(imageUrl, fetch);
+        try {
+            executor.execute(() -> run(fetch));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(imageUrl);
+            fetch.result.completeExceptionally(e);
+        }
+        return fetch;
+    }
+
+    private void release(Fetch fetch) {
+        synchronized (inFlight) {
+            if (--fetch.waiters > 0 || fetch.result.isDone()) {
+                return;
+            }
+            inFlight.remove(fetch.url, fetch);
+        }
+        log.debug("Abandoned preview of {}", fetch.url);
+        fetch.cancel();
+    }
+
+    private void run(Fetch fetch) {
+        try {
+            fetch.result.complete(load(fetch));
+        } catch (IOException | RuntimeException e) {
+            if (!fetch.result.isCancelled()) {
+                log.debug("Unable to load preview of {}", fetch.url, e);
+            }
+            fetch.result.completeExceptionally(e);
+        } finally {
+            synchronized (inFlight) {
+                inFlight.remove(fetch.url, fetch);
+            }
+        }
+    }
+
+    private PreviewImage load(Fetch fetch) throws IOException {
+        String imageUrl = fetch.url;
+        if (fetch.result.isDone()) {
+            return null;
+        }
+        PreviewImage cached = cache.get(imageUrl);
+        if (cached != null) {
+            log.debug("Cache hit for {}", imageUrl);
+            return cached;
+        }
+        if (okHttpClient == null) {
+            log.warn("No OkHttp connection available");
+            return null;
+        }
+        log.debug("Cache miss for {}, fetching from network.", imageUrl);
+
+        Request request = new Request.Builder().url(proxied(imageUrl)).build();
+        Call call = okHttpClient.newCall(request);
+        fetch.call = call;
+        // Released between the check above and publishing the call.
+        if (fetch.result.isCancelled()) {
+            return null;
+        }
+        PreviewImage image;
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful() || response.code() != 200) {
+                log.warn("Failed to fetch image: {} returned status {}", imageUrl, response.code());
+                return null;
+            }
+
+            String contentType = response.header("Content-Type");
+            if (contentType == null || !contentType.toLowerCase().startsWith("image/")) {
+                log.warn("Invalid content-type for {}: {}", imageUrl, contentType);
+                return null;
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                log.warn("Empty body for: {}", imageUrl);
+                return null;
+            }
+
+            if (body.contentLength() > MAX_DOWNLOAD_BYTES) {
+                log.debug("Skipping preview of {}, {} bytes is over the limit", imageUrl, body.contentLength());
+                return null;
+            }
+
+            InputStream in = new PreviewDecoder.CappedInputStream(body.byteStream(), MAX_DOWNLOAD_BYTES);
+            try (InputStream stream = new ThrottledInputStream(in, prefetchBandwidth, fetch)) {
+                image = PreviewDecoder.decode(stream, MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT);
+            }
+        }
+        if (image == null) {
+            log.warn("Could not decode image from URL: {}", imageUrl);
+            return null;
+        }
+        cache.put(imageUrl, image);
+        return image;
+    }
+
+    private static String proxied(String imageUrl) {
+        // Discord doesn't support CloudFlare workers :(
+        if (imageUrl.startsWith("https://cdn.discordapp.com/")) {
+            return imageUrl;
+        }
+        // CloudFlare worker to protect users from IP grabbers
+        return "https://image-proxy.cold-pine-9570.workers.dev/?url=" + URLEncoder.encode(imageUrl, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One download and decode, shared by every request for its URL.
+     */
+    private static final class Fetch {
+        final String url;
+        final CompletableFuture<PreviewImage> result = new CompletableFuture<>();
+        // Requests still interested, guarded by inFlight.
+        int waiters;
+        // Prefetches are paced until someone hovers the link.
+        volatile boolean throttled;
+        volatile Call call;
+
+        Fetch(String url, boolean throttled) {
+            this.url = url;
+            this.throttled = throttled;
+        }
+
+        void cancel() {
+            result.cancel(false);
+            Call call = this.call;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Takes a permit per byte read while the fetch is throttled, pacing it to the shared rate.
+     */
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final RateLimiter limiter;
+        private final Fetch fetch;
+
+        ThrottledInputStream(InputStream in, RateLimiter limiter, Fetch fetch) {
+            super(in);
+            this.limiter = limiter;
+            this.fetch = fetch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && fetch.throttled) {
+                limiter.acquire();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && fetch.throttled) {
+                limiter.acquire(n);
+            }
+            return n;
+        }
+    }
+}
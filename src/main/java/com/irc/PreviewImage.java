@@ -0,0 +1,46 @@
+package com.irc;
+
+import lombok.Value;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A decoded preview: one frame for still images, several already scaled frames for animations.
+ */
+@Value
+class PreviewImage {
+    BufferedImage[] frames;
+    // How long each frame stays up, in milliseconds.
+    int[] delays;
+
+    static PreviewImage of(BufferedImage image) {
+        return new PreviewImage(new BufferedImage[]{image}, new int[]{0});
+    }
+
+    BufferedImage getFirstFrame() {
+        return frames[0];
+    }
+
+    boolean isAnimated() {
+        return frames.length > 1;
+    }
+
+    int getWidth() {
+        return frames[0].getWidth();
+    }
+
+    int getHeight() {
+        return frames[0].getHeight();
+    }
+
+    /**
+     * Pixel bytes held by all frames.
+     */
+    long weight() {
+        long weight = 0;
+        for (BufferedImage frame : frames) {
+            weight += (long) frame.getWidth() * frame.getHeight() * 4;
+        }
+        return weight;
+    }
+}
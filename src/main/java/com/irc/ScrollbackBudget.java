@@ -0,0 +1,70 @@
+package com.irc;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Splits one byte budget for side-panel scrollback between the open tabs by weight, so a busy
+ * channel can keep a long history without every private message tab being allowed the same.
+ *
+ * Channels weigh {@value #CHANNEL_WEIGHT} and everything else {@value #QUERY_WEIGHT} unless the
+ * user lists an override ({@code #rshelp:4, #swiftirc:2}).
+ */
+class ScrollbackBudget {
+
+    static final double CHANNEL_WEIGHT = 1.0;
+    static final double QUERY_WEIGHT = 0.25;
+
+    private String parsedFrom;
+    // Case-folded tab name -> weight.
+    private Map<String, Double> overrides = new HashMap<>();
+
+    /**
+     * @param open   names of all open tabs, including {@code channel}
+     * @param budget total bytes to share
+     * @param spec   the user's weight overrides
+     */
+    long share(String channel, Collection<String> open, long budget, String spec) {
+        if (!Objects.equals(spec, parsedFrom)) {
+            overrides = parse(spec);
+            parsedFrom = spec;
+        }
+        double total = 0;
+        for (String name : open) {
+            total += weight(name);
+        }
+        double weight = weight(channel);
+        return total > 0 ? (long) (budget * (weight / total)) : budget;
+    }
+
+    private double weight(String channel) {
+        Double weight = overrides.get(NickIndex.fold(channel));
+        if (weight != null) {
+            return weight;
+        }
+        return channel.startsWith("#") ? CHANNEL_WEIGHT : QUERY_WEIGHT;
+    }
+
+    private static Map<String, Double> parse(String spec) {
+        Map<String, Double> weights = new HashMap<>();
+        if (spec == null) {
+            return weights;
+        }
+        for (String item : spec.split("[,\\n]")) {
+            int colon = item.lastIndexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            try {
+                double weight = Double.parseDouble(item.substring(colon + 1).trim());
+                if (weight >= 0) {
+                    weights.put(NickIndex.fold(item.substring(0, colon).trim()), weight);
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return weights;
+    }
+}
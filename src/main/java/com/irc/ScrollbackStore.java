@@ -0,0 +1,796 @@
+package com.irc;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Append-only on-disk history, one directory per channel.
+ *
+ * A channel's history is a run of segment files of up to {@value #SEGMENT_SIZE} bytes that are
+ * memory-mapped for both writing and reading, so it survives restarts without being held on the
+ * heap. A segment file starts small and doubles as it fills. A record is
+ * {@code [int length][long millis][byte type][short senderLength][sender][content]}; the length
+ * is written last, so a write torn by a crash reads back as the end of the data. The first
+ * record of every segment and every {@value #INDEX_INTERVAL}th one after that is also noted in
+ * a sidecar {@code .idx} file, a sparse timestamp index that says where to start reading.
+ *
+ * Records are identified by their address, {@code segment * SEGMENT_SIZE + offset}, so newer
+ * records have higher addresses. A channel keeps its newest {@value #MAX_SEGMENTS} segments, and
+ * all channels together stay under a disk limit by losing their oldest segments first; deleting
+ * a segment never moves the addresses of the others. Thread-safe.
+ */
+@Slf4j
+class ScrollbackStore {
+
+    static final long END = Long.MAX_VALUE;
+    private static final int SEGMENT_SIZE = 4 << 20;
+    private static final int INITIAL_SEGMENT_SIZE = 4 << 10;
+    private static final int INDEX_INTERVAL = 64;
+    // Segments kept per channel, 64 MB of history.
+    private static final int MAX_SEGMENTS = 16;
+    private static final int HEADER = 8 + 1 + 2;
+    private static final int MAX_SENDER_CHARS = 64;
+    private static final int MAX_CONTENT_CHARS = 4096;
+    private static final IrcMessage.MessageType[] TYPES = IrcMessage.MessageType.values();
+
+    @Value
+    static class Entry {
+        long address;
+        IrcMessage message;
+    }
+
+    private final File directory;
+    // Keyed by case-folded channel name.
+    private final Map<String, ChannelLog> logs = new ConcurrentHashMap<>();
+    // Appends and reads hold the read lock, so close can neither race them nor be missed by them.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock.
+    private boolean closed;
+    // Bytes of segment files counted toward the disk limit, -1 until first counted. Capped at the
+    // limit after evicting, so what cannot be evicted is only recounted once files grow again.
+    private final AtomicLong diskBytes = new AtomicLong(-1);
+    private final LongConsumer grew = delta -> diskBytes.getAndUpdate(bytes -> bytes < 0 ? bytes : bytes + delta);
+    private volatile long maxDiskBytes;
+
+    ScrollbackStore(File directory, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Changes the disk limit; a lower one is enforced on the next append.
+     */
+    void setMaxDiskBytes(long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Whether a message belongs in the store: channel and query traffic, not local status lines.
+     */
+    static boolean isStored(IrcMessage message) {
+        return !"System".equals(message.getChannel())
+                && message.getType() != IrcMessage.MessageType.SYSTEM
+                && message.getType() != IrcMessage.MessageType.HISTORY_SEPARATOR;
+    }
+
+    /**
+     * @return the new record's address, or -1 if it was not stored
+     */
+    long append(IrcMessage message) {
+        if (!isStored(message)) {
+            return -1;
+        }
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return -1;
+            }
+            long address = log(message.getChannel()).append(message);
+            long bytes = diskBytes.get();
+            if (bytes < 0 || bytes > maxDiskBytes) {
+                enforceDiskLimit();
+            }
+            return address;
+        } catch (IOException e) {
+            log.warn("Unable to store scrollback for {}", message.getChannel(), e);
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The newest {@code limit} records older than {@code address}, oldest first. Pass
+     * {@link #END} to read from the end of the log.
+     */
+    List<Entry> readBefore(String channel, long address, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            ChannelLog channelLog = closed ? null : existingLog(channel);
+            return channelLog != null ? channelLog.readBefore(channel, address, limit) : Collections.emptyList();
+        } catch (IOException e) {
+            log.warn("Unable to read scrollback for {}", channel, e);
+            return Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Time of the newest stored record, or {@code null} if nothing is stored for the channel.
+     * Reads the disk without opening the channel's log, so asking about a channel that was never
+     * stored creates nothing.
+     */
+    Instant lastTimestamp(String channel) {
+        String key = NickIndex.fold(channel);
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            ChannelLog open = logs.get(key);
+            long millis = open != null ? open.lastMillis : ChannelLog.peekLastMillis(new File(directory, encode(key)));
+            return millis > 0 ? Instant.ofEpochMilli(millis) : null;
+        } catch (IOException e) {
+            log.warn("Unable to read scrollback for {}", channel, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Feeds every record from {@code from} onwards to {@code consumer}, oldest first.
+     *
+     * @return the address just past the last record read, to resume from next time
+     */
+    long scan(String channel, long from, Consumer<Entry> consumer) {
+        lock.readLock().lock();
+        try {
+            ChannelLog channelLog = closed ? null : existingLog(channel);
+            return channelLog != null ? channelLog.scanFrom(channel, from, consumer) : from;
+        } catch (IOException e) {
+            log.warn("Unable to read scrollback for {}", channel, e);
+            return from;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The record at {@code address}, or {@code null} if there is none.
+     */
+    Entry read(String channel, long address) {
+        lock.readLock().lock();
+        try {
+            ChannelLog channelLog = closed ? null : existingLog(channel);
+            return channelLog != null ? channelLog.read(channel, address) : null;
+        } catch (IOException e) {
+            log.warn("Unable to read scrollback for {}", channel, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Address of the oldest record still stored for the channel, or {@link #END} if it has no log.
+     * Anything below it went with a deleted segment.
+     */
+    long firstAddress(String channel) {
+        lock.readLock().lock();
+        try {
+            ChannelLog channelLog = closed ? null : existingLog(channel);
+            return channelLog != null ? channelLog.firstAddress() : END;
+        } catch (IOException e) {
+            log.warn("Unable to open scrollback for {}", channel, e);
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Address range that holds the records timestamped in {@code [after, before)}, from the sparse
+     * index. Either bound may be {@code null}. The range may include a few records on either side,
+     * so callers needing exact bounds should still check each record's timestamp.
+     */
+    long[] addressRange(String channel, Instant after, Instant before) {
+        lock.readLock().lock();
+        try {
+            ChannelLog channelLog = closed ? null : existingLog(channel);
+            return channelLog != null ? channelLog.addressRange(after, before) : new long[]{0, END};
+        } catch (IOException e) {
+            log.warn("Unable to open scrollback for {}", channel, e);
+            return new long[]{0, END};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Channels that have a log on disk, case-folded.
+     */
+    List<String> channels() {
+        String[] names = directory.list((dir, name) -> new File(dir, name).isDirectory());
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        List<String> channels = new ArrayList<>(names.length);
+        for (String name : names) {
+            try {
+                channels.add(URLDecoder.decode(name, "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                log.debug("Skipping unexpected scrollback directory {}", name);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Flushes and lets go of every log; waits for appends and reads under way to finish first.
+     */
+    void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            for (ChannelLog channelLog : logs.values()) {
+                channelLog.flush();
+            }
+            logs.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the segment files of every channel and deletes the oldest ones, whatever channel they
+     * belong to, until they fit the disk limit. Holding the logs lock keeps other logs from being
+     * opened meanwhile.
+     */
+    private void enforceDiskLimit() {
+        synchronized (logs) {
+            long limit = maxDiskBytes;
+            long total = 0;
+            List<Segment> candidates = new ArrayList<>();
+            File[] directories = directory.listFiles(File::isDirectory);
+            for (File channelDirectory : directories != null ? directories : new File[0]) {
+                ChannelLog open;
+                try {
+                    open = logs.get(URLDecoder.decode(channelDirectory.getName(), "UTF-8"));
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    continue;
+                }
+                for (int segment : ChannelLog.listSegments(channelDirectory)) {
+                    total += ChannelLog.segmentFile(channelDirectory, segment).length()
+                            + ChannelLog.indexFile(channelDirectory, segment).length();
+                    candidates.add(new Segment(channelDirectory, open, segment,
+                            ChannelLog.firstMillis(channelDirectory, segment)));
+                }
+            }
+            if (total > limit) {
+                candidates.sort(Comparator.comparingLong((Segment s) -> s.firstMillis).thenComparingInt(s -> s.segment));
+                for (int i = 0; i < candidates.size() && total > limit; i++) {
+                    Segment candidate = candidates.get(i);
+                    total -= candidate.log != null
+                            ? candidate.log.drop(candidate.segment)
+                            : ChannelLog.delete(candidate.directory, candidate.segment);
+                    if (candidate.log == null && ChannelLog.listSegments(candidate.directory).length == 0) {
+                        candidate.directory.delete();
+                    }
+                }
+            }
+            diskBytes.set(Math.min(total, limit));
+        }
+    }
+
+    @Value
+    private static class Segment {
+        File directory;
+        // Open log of the channel, if any.
+        ChannelLog log;
+        int segment;
+        long firstMillis;
+    }
+
+    private ChannelLog log(String channel) throws IOException {
+        String key = NickIndex.fold(channel);
+        ChannelLog channelLog = logs.get(key);
+        if (channelLog == null) {
+            synchronized (logs) {
+                channelLog = logs.get(key);
+                if (channelLog == null) {
+                    channelLog = new ChannelLog(new File(directory, encode(key)), grew);
+                    logs.put(key, channelLog);
+                }
+            }
+        }
+        return channelLog;
+    }
+
+    /**
+     * The channel's log if anything was ever stored for it, without creating one.
+     */
+    private ChannelLog existingLog(String channel) throws IOException {
+        String key = NickIndex.fold(channel);
+        ChannelLog channelLog = logs.get(key);
+        if (channelLog != null || ChannelLog.listSegments(new File(directory, encode(key))).length == 0) {
+            return channelLog;
+        }
+        return log(channel);
+    }
+
+    private static String encode(String channel) {
+        try {
+            return URLEncoder.encode(channel, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class ChannelLog {
+        private final File directory;
+        // Told how many bytes segment files grew, or shrank by when negative.
+        private final LongConsumer grew;
+        // Sparse index: (millis, address) pairs in address order.
+        private long[] indexMillis = new long[16];
+        private long[] indexAddresses = new long[16];
+        private int indexSize;
+
+        private int tailSegment;
+        private MappedByteBuffer tail;
+        private int writeOffset;
+        private int sinceIndex;
+        private volatile long lastMillis;
+
+        // Older segments mapped read-only, least recently used first.
+        private final Map<Integer, MappedByteBuffer> readMaps = new LinkedHashMap<Integer, MappedByteBuffer>(4, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+                return size() > 4;
+            }
+        };
+
+        ChannelLog(File directory, LongConsumer grew) throws IOException {
+            this.directory = directory;
+            this.grew = grew;
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+
+            int[] segments = listSegments(directory);
+            for (int segment : segments) {
+                loadIndex(segment);
+            }
+            tailSegment = segments.length > 0 ? segments[segments.length - 1] : 0;
+            tail = mapTail(tailSegment, INITIAL_SEGMENT_SIZE);
+            prune();
+
+            // Find the end of the tail segment, starting from its last indexed record.
+            int offset = 0;
+            long tailStart = (long) tailSegment * SEGMENT_SIZE;
+            if (indexSize > 0 && indexAddresses[indexSize - 1] >= tailStart) {
+                offset = (int) (indexAddresses[indexSize - 1] - tailStart);
+            }
+            int scanned = 0;
+            int length;
+            if (indexSize > 0) {
+                lastMillis = indexMillis[indexSize - 1];
+            }
+            while ((length = recordLength(tail, offset)) > 0) {
+                lastMillis = Math.max(lastMillis, tail.getLong(offset + 4));
+                offset += 4 + length;
+                scanned++;
+            }
+            writeOffset = offset;
+            sinceIndex = scanned;
+        }
+
+        /**
+         * Timestamp of the newest record in the log at {@code directory}, or 0 if there is none,
+         * read from the newest segments from their last index point on. Creates and keeps nothing.
+         */
+        static long peekLastMillis(File directory) throws IOException {
+            int[] segments = listSegments(directory);
+            for (int i = segments.length - 1; i >= 0; i--) {
+                File segment = segmentFile(directory, segments[i]);
+                File index = indexFile(directory, segments[i]);
+                int offset = 0;
+                if (index.isFile() && index.length() >= 12) {
+                    try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+                        raf.seek((index.length() / 12 - 1) * 12 + 8);
+                        offset = raf.readInt();
+                    }
+                }
+                long millis = 0;
+                try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+                    ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, Math.min(SEGMENT_SIZE, raf.length()));
+                    int length;
+                    while (offset >= 0 && offset + 4 + HEADER <= buffer.limit()
+                            && (length = recordLength(buffer, offset)) > 0 && offset + 4 + length <= buffer.limit()) {
+                        millis = Math.max(millis, buffer.getLong(offset + 4));
+                        offset += 4 + length;
+                    }
+                }
+                if (millis > 0) {
+                    return millis;
+                }
+            }
+            return 0;
+        }
+
+        synchronized long append(IrcMessage message) throws IOException {
+            byte[] sender = truncate(message.getSender(), MAX_SENDER_CHARS).getBytes(StandardCharsets.UTF_8);
+            byte[] content = truncate(message.getContent(), MAX_CONTENT_CHARS).getBytes(StandardCharsets.UTF_8);
+            int length = HEADER + sender.length + content.length;
+            if (writeOffset + 4 + length > SEGMENT_SIZE) {
+                tail.force();
+                readMaps.put(tailSegment, tail);
+                tailSegment++;
+                tail = mapTail(tailSegment, INITIAL_SEGMENT_SIZE);
+                writeOffset = 0;
+                sinceIndex = 0;
+                prune();
+            }
+            if (writeOffset + 4 + length > tail.limit()) {
+                tail.force();
+                tail = mapTail(tailSegment, Math.min(SEGMENT_SIZE, Math.max(tail.limit() * 2, writeOffset + 4 + length)));
+            }
+
+            long millis = message.getTimestamp().toEpochMilli();
+            ByteBuffer record = tail.duplicate();
+            record.position(writeOffset + 4);
+            record.putLong(millis);
+            record.put((byte) message.getType().ordinal());
+            record.putShort((short) sender.length);
+            record.put(sender);
+            record.put(content);
+            tail.putInt(writeOffset, length);
+
+            long address = (long) tailSegment * SEGMENT_SIZE + writeOffset;
+            if (sinceIndex == 0 || sinceIndex >= INDEX_INTERVAL) {
+                addIndex(millis, address);
+                ByteBuffer entry = ByteBuffer.allocate(12).putLong(millis).putInt(writeOffset);
+                Files.write(indexFile(tailSegment).toPath(), entry.array(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                sinceIndex = 0;
+            }
+            sinceIndex++;
+            writeOffset += 4 + length;
+            // Replayed history can land after newer lines; the cursor must not go back for it.
+            lastMillis = Math.max(lastMillis, millis);
+            return address;
+        }
+
+        synchronized List<Entry> readBefore(String channel, long address, int limit) throws IOException {
+            long end = Math.min(address, (long) tailSegment * SEGMENT_SIZE + writeOffset);
+            int point = Math.max(0, pointBefore(end) - (limit + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+            Deque<Entry> result = new ArrayDeque<>();
+            long scanEnd = end;
+            while (true) {
+                long start = indexSize > 0 ? indexAddresses[point] : 0;
+                List<Entry> chunk = new ArrayList<>();
+                scan(channel, start, scanEnd, chunk::add);
+                for (int i = chunk.size() - 1; i >= 0 && result.size() < limit; i--) {
+                    result.addFirst(chunk.get(i));
+                }
+                if (result.size() >= limit || point == 0) {
+                    return new ArrayList<>(result);
+                }
+                scanEnd = start;
+                point = Math.max(0, point - (limit - result.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+            }
+        }
+
+        synchronized long scanFrom(String channel, long from, Consumer<Entry> consumer) throws IOException {
+            long end = (long) tailSegment * SEGMENT_SIZE + writeOffset;
+            scan(channel, from, end, consumer);
+            return Math.max(from, end);
+        }
+
+        synchronized Entry read(String channel, long address) throws IOException {
+            int segment = (int) (address / SEGMENT_SIZE);
+            int offset = (int) (address % SEGMENT_SIZE);
+            if (address < 0 || segment > tailSegment) {
+                return null;
+            }
+            MappedByteBuffer buffer = segment == tailSegment ? tail : readMap(segment);
+            int length = buffer != null ? recordLength(buffer, offset) : 0;
+            return length > 0 ? new Entry(address, decode(channel, buffer, offset, length)) : null;
+        }
+
+        synchronized long firstAddress() {
+            // Every segment starts with an index point.
+            return indexSize > 0 ? indexAddresses[0] : (long) tailSegment * SEGMENT_SIZE;
+        }
+
+        synchronized long[] addressRange(Instant after, Instant before) {
+            long from = 0;
+            long to = END;
+            for (int i = 0; i < indexSize; i++) {
+                if (after != null && indexMillis[i] < after.toEpochMilli()) {
+                    from = indexAddresses[i];
+                }
+                if (before != null && indexMillis[i] >= before.toEpochMilli()) {
+                    to = indexAddresses[i];
+                    break;
+                }
+            }
+            return new long[]{from, to};
+        }
+
+        synchronized void flush() {
+            tail.force();
+        }
+
+        /**
+         * Deletes a segment along with its index points. Dropping the tail first starts a new one.
+         *
+         * @return the bytes freed, 0 if it could not be deleted yet
+         */
+        synchronized long drop(int segment) {
+            if (segment == tailSegment) {
+                if (writeOffset == 0) {
+                    return 0;
+                }
+                try {
+                    tail.force();
+                    tail = mapTail(tailSegment + 1, INITIAL_SEGMENT_SIZE);
+                } catch (IOException e) {
+                    log.debug("Unable to start a new scrollback segment in {}", directory, e);
+                    return 0;
+                }
+                tailSegment++;
+                writeOffset = 0;
+                sinceIndex = 0;
+            }
+            readMaps.remove(segment);
+            long freed = delete(directory, segment);
+            if (freed > 0) {
+                long start = (long) segment * SEGMENT_SIZE;
+                int kept = 0;
+                for (int i = 0; i < indexSize; i++) {
+                    if (indexAddresses[i] < start || indexAddresses[i] >= start + SEGMENT_SIZE) {
+                        indexMillis[kept] = indexMillis[i];
+                        indexAddresses[kept] = indexAddresses[i];
+                        kept++;
+                    }
+                }
+                indexSize = kept;
+                grew.accept(-freed);
+            }
+            return freed;
+        }
+
+        private void scan(String channel, long from, long to, Consumer<Entry> consumer) throws IOException {
+            // Skip straight past pruned segments; the first index point starts the oldest one kept.
+            if (indexSize > 0) {
+                from = Math.max(from, indexAddresses[0]);
+            }
+            int segment = (int) (from / SEGMENT_SIZE);
+            int offset = (int) (from % SEGMENT_SIZE);
+            while ((long) segment * SEGMENT_SIZE + offset < to && segment <= tailSegment) {
+                MappedByteBuffer buffer = segment == tailSegment ? tail : readMap(segment);
+                int length = buffer != null ? recordLength(buffer, offset) : 0;
+                if (length <= 0) {
+                    segment++;
+                    offset = 0;
+                    continue;
+                }
+                consumer.accept(new Entry((long) segment * SEGMENT_SIZE + offset, decode(channel, buffer, offset, length)));
+                offset += 4 + length;
+            }
+        }
+
+        private static IrcMessage decode(String channel, ByteBuffer buffer, int offset, int length) {
+            long millis = buffer.getLong(offset + 4);
+            int type = buffer.get(offset + 12) & 0xFF;
+            int senderLength = buffer.getShort(offset + 13);
+            byte[] sender = new byte[senderLength];
+            byte[] content = new byte[length - HEADER - senderLength];
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + 4 + HEADER);
+            record.get(sender);
+            record.get(content);
+            return new IrcMessage(channel,
+                    new String(sender, StandardCharsets.UTF_8),
+                    new String(content, StandardCharsets.UTF_8),
+                    type < TYPES.length ? TYPES[type] : IrcMessage.MessageType.CHAT,
+                    Instant.ofEpochMilli(millis));
+        }
+
+        private static int recordLength(ByteBuffer buffer, int offset) {
+            if (offset < 0 || offset + 4 + HEADER > buffer.limit()) {
+                return 0;
+            }
+            int length = buffer.getInt(offset);
+            return length >= HEADER && offset + 4 + length <= buffer.limit() ? length : 0;
+        }
+
+        /** Index of the last index point before {@code address}, or 0. */
+        private int pointBefore(long address) {
+            int i = Arrays.binarySearch(indexAddresses, 0, indexSize, address);
+            int before = i >= 0 ? i - 1 : -i - 2;
+            return Math.max(0, before);
+        }
+
+        /**
+         * Deletes the oldest segments past {@value #MAX_SEGMENTS} along with their index points.
+         * A segment that cannot be deleted yet, e.g. one Windows still has mapped, is retried when
+         * the next segment is started.
+         */
+        private void prune() {
+            int[] segments = listSegments(directory);
+            for (int i = 0; i < segments.length - MAX_SEGMENTS; i++) {
+                if (drop(segments[i]) == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Deletes a segment's files.
+         *
+         * @return the bytes freed, 0 if the segment could not be deleted
+         */
+        static long delete(File directory, int segment) {
+            File segmentFile = segmentFile(directory, segment);
+            File indexFile = indexFile(directory, segment);
+            long bytes = segmentFile.length() + indexFile.length();
+            try {
+                Files.deleteIfExists(segmentFile.toPath());
+                Files.deleteIfExists(indexFile.toPath());
+                return bytes;
+            } catch (IOException e) {
+                log.debug("Unable to delete old scrollback segment {} in {}", segment, directory, e);
+                return 0;
+            }
+        }
+
+        /**
+         * Timestamp of a segment's first record, from its index, or 0 if it has none.
+         */
+        static long firstMillis(File directory, int segment) {
+            File index = indexFile(directory, segment);
+            if (index.length() < 12) {
+                return 0;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+                return raf.readLong();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private void addIndex(long millis, long address) {
+            if (indexSize == indexAddresses.length) {
+                indexMillis = Arrays.copyOf(indexMillis, indexSize * 2);
+                indexAddresses = Arrays.copyOf(indexAddresses, indexSize * 2);
+            }
+            indexMillis[indexSize] = millis;
+            indexAddresses[indexSize] = address;
+            indexSize++;
+        }
+
+        private void loadIndex(int segment) throws IOException {
+            long base = (long) segment * SEGMENT_SIZE;
+            File file = indexFile(segment);
+            byte[] bytes = file.isFile() ? Files.readAllBytes(file.toPath()) : new byte[0];
+            ByteBuffer entries = ByteBuffer.wrap(bytes);
+            if (entries.remaining() < 12 || entries.getInt(8) != 0) {
+                // Missing or partial index; the segment start is always a record boundary.
+                MappedByteBuffer buffer = readMap(segment);
+                if (buffer != null && recordLength(buffer, 0) > 0) {
+                    addIndex(buffer.getLong(4), base);
+                }
+            }
+            while (entries.remaining() >= 12) {
+                addIndex(entries.getLong(), base + entries.getInt());
+            }
+        }
+
+        private MappedByteBuffer readMap(int segment) throws IOException {
+            MappedByteBuffer buffer = readMaps.get(segment);
+            if (buffer == null) {
+                buffer = map(segment);
+                if (buffer != null) {
+                    readMaps.put(segment, buffer);
+                }
+            }
+            return buffer;
+        }
+
+        private MappedByteBuffer map(int segment) throws IOException {
+            File file = segmentFile(segment);
+            if (!file.isFile()) {
+                return null;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, Math.min(SEGMENT_SIZE, raf.length()));
+            }
+        }
+
+        /**
+         * Maps the tail segment for writing, first growing its file to at least {@code size}.
+         */
+        private MappedByteBuffer mapTail(int segment, int size) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(segmentFile(segment), "rw")) {
+                long length = raf.length();
+                if (length < size) {
+                    raf.setLength(size);
+                    grew.accept(size - length);
+                    length = size;
+                }
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.min(SEGMENT_SIZE, length));
+            }
+        }
+
+        static int[] listSegments(File directory) {
+            String[] names = directory.list((dir, name) -> name.matches("\\d{8}\\.seg"));
+            if (names == null) {
+                return new int[0];
+            }
+            int[] segments = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                segments[i] = Integer.parseInt(names[i].substring(0, 8));
+            }
+            Arrays.sort(segments);
+            return segments;
+        }
+
+        private File segmentFile(int segment) {
+            return segmentFile(directory, segment);
+        }
+
+        private File indexFile(int segment) {
+            return indexFile(directory, segment);
+        }
+
+        static File segmentFile(File directory, int segment) {
+            return new File(directory, String.format("%08d.seg", segment));
+        }
+
+        static File indexFile(File directory, int segment) {
+            return new File(directory, String.format("%08d.idx", segment));
+        }
+
+        private static String truncate(String value, int maxChars) {
+            if (value == null) {
+                return "";
+            }
+            return value.length() > maxChars ? value.substring(0, maxChars) : value;
+        }
+    }
+}
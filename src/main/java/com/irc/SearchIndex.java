@@ -0,0 +1,322 @@
+package com.irc;
+
+import lombok.Value;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index over the {@link ScrollbackStore}: per channel, each token maps to the ascending
+ * addresses of the records containing it. The index catches up incrementally, reading only what
+ * was appended since the previous search, and a query intersects posting lists and reads back
+ * just the hits rather than scanning stored lines. Thread-safe.
+ */
+class SearchIndex {
+
+    static final int DEFAULT_LIMIT = 100;
+    // Prefix for sender tokens so "nick:bob" never matches the word "bob".
+    private static final char NICK_KEY = '\u0001';
+
+    /**
+     * A parsed search: words that must all appear, plus optional {@code nick:}, {@code channel:},
+     * {@code after:} and {@code before:} (yyyy-MM-dd, local time) filters. Filters alone list the
+     * newest lines they let through.
+     */
+    @Value
+    static class Query {
+        List<String> terms;
+        String nick;
+        String channel;
+        Instant after;
+        Instant before;
+
+        static Query parse(String text) {
+            List<String> terms = new ArrayList<>();
+            String nick = null;
+            String channel = null;
+            Instant after = null;
+            Instant before = null;
+            for (String part : text.trim().split("\\s+")) {
+                String lower = part.toLowerCase();
+                if (lower.startsWith("nick:") && part.length() > 5) {
+                    nick = part.substring(5);
+                } else if (lower.startsWith("channel:") && part.length() > 8) {
+                    channel = part.substring(8);
+                } else if (lower.startsWith("after:") && parseDate(part.substring(6)) != null) {
+                    after = parseDate(part.substring(6));
+                } else if (lower.startsWith("before:") && parseDate(part.substring(7)) != null) {
+                    before = parseDate(part.substring(7));
+                } else {
+                    terms.addAll(tokenize(part));
+                }
+            }
+            return new Query(terms, nick, channel, after, before);
+        }
+
+        boolean isEmpty() {
+            return terms.isEmpty() && nick == null && channel == null && after == null && before == null;
+        }
+
+        private static Instant parseDate(String value) {
+            try {
+                return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    private final ScrollbackStore store;
+    // Keyed by case-folded channel name, as the store lists them.
+    private final Map<String, ChannelIndex> channels = new ConcurrentHashMap<>();
+
+    SearchIndex(ScrollbackStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Matching records across channels, newest first.
+     */
+    List<ScrollbackStore.Entry> search(Query query, int limit) {
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        channels.keySet().retainAll(store.channels());
+        String channelFilter = query.getChannel() != null ? NickIndex.fold(query.getChannel()) : null;
+        List<ScrollbackStore.Entry> hits = new ArrayList<>();
+        for (String channel : store.channels()) {
+            if (channelFilter == null || channelFilter.equals(channel)) {
+                hits.addAll(channels.computeIfAbsent(channel, ChannelIndex::new).search(query, limit));
+            }
+        }
+        hits.sort(Comparator.comparing((ScrollbackStore.Entry entry) -> entry.getMessage().getTimestamp()).reversed());
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Indexes everything stored so far, so the first search does not pay for it.
+     */
+    void warmUp() {
+        channels.keySet().retainAll(store.channels());
+        for (String channel : store.channels()) {
+            channels.computeIfAbsent(channel, ChannelIndex::new).catchUp();
+        }
+    }
+
+    /**
+     * Lowercased words of a message, with IRC formatting codes removed.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\u0003') {
+                // Colour code: skip up to two digits, optionally followed by ",NN".
+                int j = i + 1;
+                for (int n = 0; n < 2 && j < text.length() && Character.isDigit(text.charAt(j)); n++) {
+                    j++;
+                }
+                if (j + 1 < text.length() && text.charAt(j) == ',' && Character.isDigit(text.charAt(j + 1))) {
+                    j += 2;
+                    if (j < text.length() && Character.isDigit(text.charAt(j))) {
+                        j++;
+                    }
+                }
+                i = j - 1;
+            } else if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        return tokens;
+    }
+
+    private static String nickKey(String sender) {
+        String nick = sender.startsWith("* ") ? sender.substring(2) : sender;
+        return NICK_KEY + NickIndex.fold(nick);
+    }
+
+    private final class ChannelIndex {
+        private final String channel;
+        private final Map<String, Postings> postings = new HashMap<>();
+        // Store address up to which records have been indexed.
+        private long indexedTo;
+        // Oldest address the store held at the last catch-up.
+        private long first;
+
+        ChannelIndex(String channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Indexes what was appended since the last call, and forgets postings for records the
+         * store has since deleted.
+         */
+        synchronized void catchUp() {
+            long oldest = store.firstAddress(channel);
+            if (oldest < first) {
+                // The whole log was deleted and started over, reusing its addresses.
+                postings.clear();
+                indexedTo = 0;
+            } else if (oldest > first) {
+                dropBefore(oldest);
+            }
+            first = oldest;
+            indexedTo = store.scan(channel, indexedTo, entry -> {
+                long address = entry.getAddress();
+                IrcMessage message = entry.getMessage();
+                for (String token : tokenize(message.getContent())) {
+                    postings.computeIfAbsent(token, k -> new Postings()).add(address);
+                }
+                postings.computeIfAbsent(nickKey(message.getSender()), k -> new Postings()).add(address);
+            });
+        }
+
+        synchronized List<ScrollbackStore.Entry> search(Query query, int limit) {
+            catchUp();
+            List<Postings> lists = new ArrayList<>();
+            for (String term : query.getTerms()) {
+                lists.add(postings.get(term));
+            }
+            if (query.getNick() != null) {
+                lists.add(postings.get(nickKey(query.getNick())));
+            }
+            if (lists.contains(null)) {
+                return Collections.emptyList();
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            long[] range = query.getAfter() != null || query.getBefore() != null
+                    ? store.addressRange(channel, query.getAfter(), query.getBefore())
+                    : new long[]{0, ScrollbackStore.END};
+            if (lists.isEmpty()) {
+                return walk(query, range, limit);
+            }
+
+            // Walk the rarest list newest first, probing the others by binary search.
+            List<ScrollbackStore.Entry> hits = new ArrayList<>();
+            Postings rarest = lists.get(0);
+            for (int i = rarest.size - 1; i >= 0 && hits.size() < limit; i--) {
+                long address = rarest.addresses[i];
+                if (address >= range[1]) {
+                    continue;
+                }
+                if (address < range[0]) {
+                    break;
+                }
+                if (!containsAll(lists, address)) {
+                    continue;
+                }
+                ScrollbackStore.Entry entry = store.read(channel, address);
+                if (entry != null && inDateRange(query, entry.getMessage().getTimestamp())) {
+                    hits.add(entry);
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * Reads the range newest first, for queries with only channel and date filters and so no
+         * posting list to walk.
+         */
+        private List<ScrollbackStore.Entry> walk(Query query, long[] range, int limit) {
+            List<ScrollbackStore.Entry> hits = new ArrayList<>();
+            long before = range[1];
+            while (hits.size() < limit) {
+                List<ScrollbackStore.Entry> page = store.readBefore(channel, before, limit);
+                for (int i = page.size() - 1; i >= 0 && hits.size() < limit; i--) {
+                    ScrollbackStore.Entry entry = page.get(i);
+                    if (entry.getAddress() < range[0]) {
+                        return hits;
+                    }
+                    if (inDateRange(query, entry.getMessage().getTimestamp())) {
+                        hits.add(entry);
+                    }
+                }
+                if (page.size() < limit) {
+                    break;
+                }
+                before = page.get(0).getAddress();
+            }
+            return hits;
+        }
+
+        private void dropBefore(long address) {
+            Iterator<Postings> lists = postings.values().iterator();
+            while (lists.hasNext()) {
+                Postings list = lists.next();
+                list.dropBefore(address);
+                if (list.size == 0) {
+                    lists.remove();
+                }
+            }
+        }
+
+        private boolean containsAll(List<Postings> lists, long address) {
+            for (int i = 1; i < lists.size(); i++) {
+                Postings list = lists.get(i);
+                if (Arrays.binarySearch(list.addresses, 0, list.size, address) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean inDateRange(Query query, Instant timestamp) {
+            return (query.getAfter() == null || !timestamp.isBefore(query.getAfter()))
+                    && (query.getBefore() == null || timestamp.isBefore(query.getBefore()));
+        }
+    }
+
+    private static final class Postings {
+        // Store addresses are byte offsets into a channel's whole log, which can pass 2 GB.
+        private long[] addresses = new long[4];
+        private int size;
+
+        void add(long address) {
+            if (size > 0 && addresses[size - 1] >= address) {
+                return;
+            }
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+            }
+            addresses[size++] = address;
+        }
+
+        void dropBefore(long address) {
+            int from = Arrays.binarySearch(addresses, 0, size, address);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            if (from == 0) {
+                return;
+            }
+            size -= from;
+            addresses = Arrays.copyOfRange(addresses, from, from + Math.max(4, size));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.irc;
 
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.net.ssl.SSLSocket;
@@ -12,6 +13,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
@@ -22,6 +27,7 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,11 +63,24 @@ public class SimpleIrcClient {
 
     String currentTagTime;   // package-private: accessed by TestableIrcClient subclass
     String currentTagBatch;  // package-private: accessed by TestableIrcClient subclass
+    private String currentSource; // raw nick!user@host prefix of the line being processed
+    // Server clock minus ours, from the server-time of the newest live line; 0 until one arrives.
+    private volatile long clockOffsetMillis;
 
     private final Map<String, List<IrcEvent>> activeBatches = new HashMap<>();
     private final Map<String, String> activeBatchChannels = new HashMap<>();
+    // Open netsplit/netjoin batches: the QUITs or JOINs inside are processed as usual, but their
+    // events are held back and delivered together when the batch closes.
+    private final Map<String, IrcEvent> splitBatches = new HashMap<>();
 
     boolean capHistorySupported = false;  // package-private: accessed by TestableIrcClient subclass
+    // Time of the newest message already held locally for a channel, so a rejoin only asks for
+    // what is missing.
+    @Setter
+    private Function<String, Instant> historyCursor;
+    private static final DateTimeFormatter HISTORY_TIMESTAMP = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
     private boolean capEndSent = false;
     private final Set<String> advertisedCaps = new HashSet<>();
 
@@ -176,6 +195,7 @@ public class SimpleIrcClient {
         } finally {
             activeBatches.clear();
             activeBatchChannels.clear();
+            splitBatches.clear();
             connected = false;
             fireEvent(new IrcEvent(IrcEvent.Type.DISCONNECT, null, null, null, null));
         }
@@ -209,6 +229,15 @@ public class SimpleIrcClient {
         }
     }
 
+    /**
+     * The server's idea of the current time: ours, corrected by how far the server-time of live
+     * lines is from it. Lines stamped locally use this, so they sort among the ones the server
+     * stamped and a skewed local clock cannot move the history cursor.
+     */
+    public Instant serverNow() {
+        return Instant.now().plusMillis(clockOffsetMillis);
+    }
+
     public void sendMessage(String target, String message) {
         if (connected) {
             sendRawLine("PRIVMSG " + target + " :" + message);
@@ -247,6 +276,7 @@ public class SimpleIrcClient {
         // Reset per-line tag state
         currentTagTime = null;
         currentTagBatch = null;
+        currentSource = null;
 
         // Strip and parse IRCv3 message tags (@key=value;...)
         if (line.startsWith("@")) {
@@ -265,6 +295,14 @@ public class SimpleIrcClient {
                 }
             }
         }
+        // Batched lines may be replayed history, stamped long before they reached us.
+        if (currentTagTime != null && currentTagBatch == null) {
+            try {
+                clockOffsetMillis = Instant.parse(currentTagTime).toEpochMilli() - System.currentTimeMillis();
+            } catch (DateTimeParseException e) {
+                log.debug("Unparseable server-time {}", currentTagTime);
+            }
+        }
 
         Matcher matcher = MESSAGE_PATTERN.matcher(line);
 
@@ -300,6 +338,7 @@ public class SimpleIrcClient {
 
     private void processCommand(String source, String command, List<String> params) {
         String sourceNick = extractNick(source);
+        currentSource = source;
 
         // IRCv3 batch intercept: accumulate tagged messages instead of processing normally
         if (currentTagBatch != null && activeBatches.containsKey(currentTagBatch)) {
@@ -313,14 +352,15 @@ public class SimpleIrcClient {
                     String[] parts = ctcp.split(" ", 2);
                     if ("ACTION".equals(parts[0])) {
                         String actionText = parts.length > 1 ? parts[1] : "";
-                        activeBatches.get(batchRef).add(
-                            new IrcEvent(IrcEvent.Type.ACTION, sourceNick, target, actionText, currentTagTime)
-                        );
+                        IrcEvent action = new IrcEvent(IrcEvent.Type.ACTION, sourceNick, target, actionText, currentTagTime);
+                        action.hostmask = source;
+                        activeBatches.get(batchRef).add(action);
                     }
                 } else {
-                    activeBatches.get(batchRef).add(
-                        new IrcEvent(IrcEvent.Type.MESSAGE, sourceNick, target, msgBody, currentTagTime)
-                    );
+                    IrcEvent message = new IrcEvent(IrcEvent.Type.MESSAGE, sourceNick, target, msgBody, currentTagTime);
+                    // Kept so ignore masks apply to replayed lines too.
+                    message.hostmask = source;
+                    activeBatches.get(batchRef).add(message);
                 }
                 return;
             }
@@ -349,7 +389,9 @@ public class SimpleIrcClient {
                     fireEvent(new IrcEvent(IrcEvent.Type.JOIN, sourceNick, channel, null, null));
                     channelUsers.computeIfAbsent(channel, k -> new HashSet<>()).add(sourceNick);
                     if (sourceNick.equals(nick) && capHistorySupported) {
-                        sendRawLine("CHATHISTORY LATEST " + channel + " * 100");
+                        Instant since = historyCursor != null ? historyCursor.apply(channel) : null;
+                        String bound = since != null ? "timestamp=" + HISTORY_TIMESTAMP.format(since) : "*";
+                        sendRawLine("CHATHISTORY LATEST " + channel + " " + bound + " 100");
                     }
                 }
                 break;
@@ -463,7 +505,15 @@ public class SimpleIrcClient {
             case "BATCH":
                 if (params.isEmpty()) break;
                 String batchToken = params.get(0);
-                if (batchToken.startsWith("+")) {
+                String batchType = params.size() >= 2 ? params.get(1) : "";
+                if (batchToken.startsWith("+") && ("netsplit".equals(batchType) || "netjoin".equals(batchType))) {
+                    // params = [+ref, type, server1, server2]
+                    String servers = params.size() >= 4 ? params.get(2) + " " + params.get(3) : "";
+                    IrcEvent.Type type = "netsplit".equals(batchType) ? IrcEvent.Type.NETSPLIT : IrcEvent.Type.NETJOIN;
+                    splitBatches.put(batchToken.substring(1), new IrcEvent(type, null, null, servers, null, new ArrayList<>()));
+                } else if (batchToken.startsWith("-") && splitBatches.containsKey(batchToken.substring(1))) {
+                    fireEvent(splitBatches.remove(batchToken.substring(1)));
+                } else if (batchToken.startsWith("+")) {
                     String ref = batchToken.substring(1);
                     // params = [+ref, type, channel]
                     String batchChannel = params.size() >= 3 ? params.get(2) : "";
@@ -704,6 +754,19 @@ public class SimpleIrcClient {
     }
 
     private void fireEvent(IrcEvent event) {
+        if (event.hostmask == null) {
+            event.hostmask = currentSource;
+        }
+        if (event.serverTime == null) {
+            event.serverTime = currentTagTime;
+        }
+
+        IrcEvent split = currentTagBatch != null ? splitBatches.get(currentTagBatch) : null;
+        if (split != null && (event.getType() == IrcEvent.Type.QUIT || event.getType() == IrcEvent.Type.JOIN)) {
+            split.getHistoryMessages().add(event);
+            return;
+        }
+
         if (event.getType() == IrcEvent.Type.REGISTERED) {
             for (Runnable command : pendingCommands) {
                 command.run();
@@ -726,7 +789,7 @@ public class SimpleIrcClient {
             CONNECT, DISCONNECT, REGISTERED, MESSAGE, ACTION, JOIN, PART, QUIT,
             NICK_CHANGE, KICK, NOTICE, SERVER_NOTICE, CHANNEL_MODE, USER_MODE,
             TOPIC, NAMES, NICK_IN_USE, ERROR, TOPIC_INFO, BAD_CHANNEL_KEY, WHOIS_REPLY,
-            HISTORY_BATCH, SASL_SUCCESS, SASL_FAILED
+            HISTORY_BATCH, SASL_SUCCESS, SASL_FAILED, NETSPLIT, NETJOIN
         }
 
         private final Type type;
@@ -735,6 +798,10 @@ public class SimpleIrcClient {
         private final String message;
         private final String additionalData;
         private final List<IrcEvent> historyMessages;
+        // Full nick!user@host of the sender, when the server supplied one.
+        private String hostmask;
+        // IRCv3 server-time of the line behind the event, when the server sent one.
+        private String serverTime;
 
         public IrcEvent(Type type, String source, String target, String message,
                         String additionalData, List<IrcEvent> historyMessages) {
@@ -0,0 +1,51 @@
+package com.irc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A small pool of single-threaded lanes. Tasks submitted under the same key always run on the
+ * same lane, so they execute in submission order, while tasks for different keys can run in
+ * parallel on other lanes.
+ */
+@Slf4j
+class StripedExecutor {
+
+    private final ExecutorService[] lanes;
+
+    StripedExecutor(String name, int laneCount) {
+        lanes = new ExecutorService[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    void execute(String key, Runnable task) {
+        ExecutorService lane = lanes[Math.floorMod(key.hashCode(), lanes.length)];
+        try {
+            lane.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("Task for {} failed", key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Dropping task for {} after shutdown", key);
+        }
+    }
+
+    void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+}
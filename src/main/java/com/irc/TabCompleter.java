@@ -0,0 +1,76 @@
+package com.irc;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Tab completion state for the side-panel input box.
+ *
+ * The first press completes the word before the caret with the best candidate; pressing Tab
+ * again without editing cycles through the remaining candidates. Any edit in between starts a
+ * fresh completion. A nick completed as the first word gets a {@code ": "} suffix, anything
+ * else a single space.
+ */
+class TabCompleter {
+
+    static final class Completion {
+        final String text;
+        final int caret;
+
+        Completion(String text, int caret) {
+            this.text = text;
+            this.caret = caret;
+        }
+    }
+
+    private List<String> candidates;
+    private int index;
+    private int wordStart;
+    private String prefixText;
+    private String suffixText;
+    // What the field looked like right after our last completion, to detect edits.
+    private String lastText;
+    private int lastCaret = -1;
+
+    /**
+     * @param source maps the partial word to candidates, best first
+     * @return the new field contents, or {@code null} if there is nothing to complete
+     */
+    Completion complete(String text, int caret, Function<String, List<String>> source) {
+        if (candidates == null || !text.equals(lastText) || caret != lastCaret) {
+            wordStart = caret;
+            while (wordStart > 0 && !Character.isWhitespace(text.charAt(wordStart - 1))) {
+                wordStart--;
+            }
+            String word = text.substring(wordStart, caret);
+            if (word.isEmpty()) {
+                reset();
+                return null;
+            }
+            List<String> found = source.apply(word);
+            if (found == null || found.isEmpty()) {
+                reset();
+                return null;
+            }
+            candidates = found;
+            index = 0;
+            prefixText = text.substring(0, wordStart);
+            suffixText = text.substring(caret);
+        } else {
+            index = (index + 1) % candidates.size();
+        }
+
+        String candidate = candidates.get(index);
+        String separator = wordStart == 0 && !candidate.startsWith("#") ? ": " : " ";
+        String completed = candidate + (suffixText.startsWith(" ") ? "" : separator);
+        lastText = prefixText + completed + suffixText;
+        lastCaret = prefixText.length() + completed.length();
+        return new Completion(lastText, lastCaret);
+    }
+
+    void reset() {
+        candidates = null;
+        lastText = null;
+        lastCaret = -1;
+    }
+}
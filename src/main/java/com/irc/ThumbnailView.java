@@ -0,0 +1,165 @@
+package com.irc;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import javax.swing.text.html.HTML;
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An inline image thumbnail in a channel pane. Nothing is requested until the view is first
+ * painted, which Swing only does for rows inside the viewport. The pane evicts thumbnails that
+ * scroll far away, and they load again from the shared cache if they come back. Only a fetch or
+ * decode that fails leaves the grey box for good; one that was turned away by a full pool or
+ * cancelled under it is retried shortly.
+ *
+ * The height is fixed, so loading or evicting never shifts the rows below. EDT only.
+ */
+class ThumbnailView extends View {
+
+    static final int HEIGHT = 80;
+    private static final int MAX_WIDTH = 160;
+    private static final int PADDING = 2;
+    private static final Color PLACEHOLDER = new Color(0x40, 0x40, 0x40);
+
+    private final String url;
+    private final PreviewFetcher previewFetcher;
+    private BufferedImage thumbnail;
+    private CompletableFuture<BufferedImage> request;
+    // Width of the loaded thumbnail, kept after eviction so the row does not reflow.
+    private int width = HEIGHT;
+    private boolean failed;
+
+    ThumbnailView(Element elem, PreviewFetcher previewFetcher) {
+        super(elem);
+        this.url = (String) elem.getAttributes().getAttribute(HTML.Attribute.SRC);
+        this.previewFetcher = previewFetcher;
+    }
+
+    /**
+     * Drops the thumbnail, or the request for it, until the view is painted again.
+     */
+    void evict() {
+        if (request != null) {
+            request.cancel(false);
+            request = null;
+        }
+        thumbnail = null;
+    }
+
+    @Override
+    public void setParent(View parent) {
+        if (parent == null) {
+            // The pane is only reachable through the parent chain this call takes away.
+            Container container = getContainer();
+            super.setParent(null);
+            if (container instanceof IrcPanel.ChannelPane) {
+                ((IrcPanel.ChannelPane) container).removeThumbnail(this);
+            }
+            evict();
+            return;
+        }
+        super.setParent(parent);
+        Container container = getContainer();
+        if (container instanceof IrcPanel.ChannelPane) {
+            ((IrcPanel.ChannelPane) container).addThumbnail(this);
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, Shape allocation) {
+        Rectangle r = allocation.getBounds();
+        if (thumbnail != null) {
+            g.drawImage(thumbnail, r.x + PADDING, r.y + PADDING, null);
+            return;
+        }
+        g.setColor(PLACEHOLDER);
+        g.drawRect(r.x + PADDING, r.y + PADDING, width - 1, HEIGHT - 1);
+        if (request == null && !failed && url != null) {
+            load();
+        }
+    }
+
+    private void load() {
+        CompletableFuture<BufferedImage> scaled = previewFetcher.requestThumbnail(url, MAX_WIDTH, HEIGHT);
+        request = scaled;
+        scaled.whenComplete((image, error) -> SwingUtilities.invokeLater(() -> {
+            if (request != scaled) {
+                return;
+            }
+            request = null;
+            if (error != null && isTransient(error)) {
+                Container container = getContainer();
+                if (container instanceof IrcPanel.ChannelPane) {
+                    ((IrcPanel.ChannelPane) container).retryThumbnails();
+                }
+                return;
+            }
+            if (image == null) {
+                failed = true;
+                return;
+            }
+            thumbnail = image;
+            if (image.getWidth() != width) {
+                width = image.getWidth();
+                preferenceChanged(null, true, false);
+            }
+            Container container = getContainer();
+            if (container != null) {
+                container.repaint();
+            }
+        }));
+    }
+
+    private static boolean isTransient(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RejectedExecutionException || cause instanceof CancellationException;
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        return (axis == X_AXIS ? width : HEIGHT) + PADDING * 2;
+    }
+
+    @Override
+    public float getAlignment(int axis) {
+        return axis == Y_AXIS ? 1 : super.getAlignment(axis);
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        int p0 = getStartOffset();
+        int p1 = getEndOffset();
+        if (pos < p0 || pos > p1) {
+            throw new BadLocationException(pos + " not in range " + p0 + "," + p1, pos);
+        }
+        Rectangle r = a.getBounds();
+        if (pos == p1) {
+            r.x += r.width;
+        }
+        r.width = 0;
+        return r;
+    }
+
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        Rectangle r = a.getBounds();
+        if (x < r.x + r.width / 2f) {
+            bias[0] = Position.Bias.Forward;
+            return getStartOffset();
+        }
+        bias[0] = Position.Bias.Backward;
+        return getEndOffset();
+    }
+}
@@ -0,0 +1,109 @@
+package com.irc;
+
+import lombok.Value;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Unread state of every open channel: how many lines arrived since it was last looked at, and
+ * whether any of them mentioned the user. Safe to use from any thread.
+ *
+ * Listeners hear about a channel when it turns unread or read or gains a mention, on the thread
+ * that made the change. More lines arriving in a channel that is already unread only bump its
+ * count, which is read when drawn, so busy background channels notify nobody.
+ */
+class UnreadModel {
+
+    private static final State READ = new State(0, false);
+
+    // Guarded by this.
+    private final Map<String, State> states = new HashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    synchronized boolean contains(String channel) {
+        return states.containsKey(channel);
+    }
+
+    synchronized void add(String channel) {
+        states.putIfAbsent(channel, READ);
+    }
+
+    synchronized void remove(String channel) {
+        states.remove(channel);
+    }
+
+    synchronized void rename(String oldName, String newName) {
+        State state = states.remove(oldName);
+        if (state != null) {
+            states.put(newName, state);
+        }
+    }
+
+    /**
+     * Counts {@code lines} new lines into an open channel, {@code mention} if any of them
+     * highlighted the user.
+     */
+    void arrived(String channel, int lines, boolean mention) {
+        State before;
+        State after;
+        synchronized (this) {
+            before = states.get(channel);
+            if (before == null) {
+                return;
+            }
+            after = new State(before.count + lines, before.mention || mention);
+            states.put(channel, after);
+        }
+        if (before.isUnread() != after.isUnread() || before.mention != after.mention) {
+            changed(channel);
+        }
+    }
+
+    void markRead(String channel) {
+        State before;
+        synchronized (this) {
+            before = states.get(channel);
+            if (before == null || before.equals(READ)) {
+                return;
+            }
+            states.put(channel, READ);
+        }
+        changed(channel);
+    }
+
+    synchronized int getCount(String channel) {
+        return states.getOrDefault(channel, READ).count;
+    }
+
+    synchronized boolean isUnread(String channel) {
+        return states.getOrDefault(channel, READ).isUnread();
+    }
+
+    synchronized boolean hasMention(String channel) {
+        return states.getOrDefault(channel, READ).mention;
+    }
+
+    private void changed(String channel) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(channel);
+        }
+    }
+
+    @Value
+    private static class State {
+        int count;
+        boolean mention;
+
+        boolean isUnread() {
+            return count > 0;
+        }
+    }
+}
@@ -1,50 +1,92 @@
 package com.irc.emoji;
 
+import java.nio.CharBuffer;
 import java.util.*;
 
 public class EmojiManager {
     private static final Map<String, Emoji> EMOJI_BY_UNICODE = new HashMap<>();
     private static final Map<String, Emoji> EMOJI_BY_ALIAS = new HashMap<>();
-    private static final List<Emoji> ALL_EMOJIS = new ArrayList<>();
     private static EmojiTrie EMOJI_TRIE;
-    private static boolean initialized = false;
+    // Every alias in sorted order, so a prefix is one contiguous range.
+    private static String[] SORTED_ALIASES = new String[0];
+    // Written last by initialize(), so a reader that sees it set also sees the tables.
+    private static volatile boolean initialized = false;
 
     static boolean isInitialized() {
         return initialized;
     }
 
-    static void register(Emoji emoji) {
-        EMOJI_BY_UNICODE.put(emoji.getUnicode(), emoji);
-        ALL_EMOJIS.add(emoji);
-        for (String alias : emoji.getAliases()) {
-            EMOJI_BY_ALIAS.put(alias, emoji);
+    static synchronized void initialize(List<Emoji> emojis) {
+        if (initialized) {
+            return;
         }
-    }
-
-    static void finishInitialization() {
-        EMOJI_TRIE = new EmojiTrie(ALL_EMOJIS);
+        for (Emoji emoji : emojis) {
+            EMOJI_BY_UNICODE.put(emoji.getUnicode(), emoji);
+            for (String alias : emoji.getAliases()) {
+                EMOJI_BY_ALIAS.put(alias, emoji);
+            }
+        }
+        EMOJI_TRIE = new EmojiTrie(emojis);
+        SORTED_ALIASES = EMOJI_BY_ALIAS.keySet().toArray(new String[0]);
+        Arrays.sort(SORTED_ALIASES);
         initialized = true;
     }
 
     public static Emoji getByUnicode(String unicode) {
-        if (unicode == null) return null;
+        if (unicode == null || !initialized) return null;
         return EMOJI_TRIE.getEmoji(unicode);
     }
 
+    public static Emoji getForAlias(String alias) {
+        if (alias == null || !initialized) return null;
+        return EMOJI_BY_ALIAS.get(alias);
+    }
+
+    /**
+     * Up to {@code limit} aliases starting with {@code prefix}, in alphabetical order, found by
+     * binary search over the sorted aliases.
+     */
+    public static List<String> getAliasesStartingWith(String prefix, int limit) {
+        if (!initialized || prefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String[] aliases = SORTED_ALIASES;
+        int from = Arrays.binarySearch(aliases, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        List<String> matches = new ArrayList<>(limit);
+        for (int i = from; i < aliases.length && matches.size() < limit && aliases[i].startsWith(prefix); i++) {
+            matches.add(aliases[i]);
+        }
+        return matches;
+    }
+
+    /**
+     * Whether an emoji can start with this char; false for almost all plain text.
+     */
+    public static boolean mayStartEmoji(char c) {
+        return initialized && EMOJI_TRIE.mayStartEmoji(c);
+    }
+
     public static int getEmojiEndPos(char[] text, int startPos) {
+        return getEmojiEndPos(CharBuffer.wrap(text), startPos);
+    }
+
+    /**
+     * @return the end index of the longest emoji starting at {@code startPos}, or -1 if none does
+     */
+    public static int getEmojiEndPos(CharSequence text, int startPos) {
         if (!initialized) {
             throw new IllegalStateException("EmojiManager has not been initialized. Call initialize() first.");
         }
+        return EMOJI_TRIE.longestMatch(text, startPos);
+    }
 
-        int best = -1;
-        for (int j = startPos + 1; j <= text.length; j++) {
-            EmojiTrie.Matches status = EMOJI_TRIE.isEmoji(text, startPos, j);
-            if (status.exactMatch()) {
-                best = j;
-            } else if (status.impossibleMatch()) {
-                return best;
-            }
-        }
-        return best;
+    /**
+     * The trie, for callers scanning many positions; null until initialized.
+     */
+    static EmojiTrie getTrie() {
+        return initialized ? EMOJI_TRIE : null;
     }
 }
@@ -1,135 +1,151 @@
 package com.irc.emoji;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.IntPredicate;
 
 public class EmojiParser {
     public enum FitzpatrickAction {
         PARSE, REMOVE, IGNORE
     }
 
+    private static final IntPredicate ANY_EMOJI = codePoint -> true;
+
     public static String parseToAliases(String input) {
         return parseToAliases(input, FitzpatrickAction.PARSE);
     }
 
     public static String parseToAliases(String input, FitzpatrickAction fitzpatrickAction) {
-        if (input == null || input.isEmpty()) return input;
-
-        int prev = 0;
-        StringBuilder sb = new StringBuilder(input.length());
-        List<UnicodeCandidate> candidates = getUnicodeCandidates(input);
+        return parseToAliases(input, fitzpatrickAction, ANY_EMOJI);
+    }
 
-        for (UnicodeCandidate candidate : candidates) {
-            sb.append(input, prev, candidate.getEmojiStartIndex());
+    /**
+     * Replaces the emojis whose first code point passes {@code filter} with their first alias.
+     *
+     * @return the input instance itself when nothing was replaced
+     */
+    public static String parseToAliases(String input, FitzpatrickAction fitzpatrickAction, IntPredicate filter) {
+        EmojiTrie trie = EmojiManager.getTrie();
+        if (input == null || input.isEmpty() || trie == null) return input;
+        StringBuilder sb = replace(trie, input, fitzpatrickAction, filter);
+        return sb == null ? input : sb.toString();
+    }
 
-            String replacement;
-            switch (fitzpatrickAction) {
-                case PARSE:
-                    if (candidate.hasFitzpatrick()) {
-                        replacement = ":" +
-                                candidate.getEmoji().getAliases().get(0) +
-                                "|" +
-                                candidate.getFitzpatrickType() +
-                                ":";
-                    } else {
-                        replacement = ":" + candidate.getEmoji().getAliases().get(0) + ":";
+    /**
+     * Replaces {@code :alias:} and {@code :alias|type_3:} tokens with the emoji they name, skin
+     * tone included where the emoji supports one. Tokens are found by one scan between colons and
+     * resolved with a single alias table lookup each.
+     *
+     * @return the input instance itself when nothing was replaced
+     */
+    public static String parseToUnicode(String input) {
+        if (input == null || input.indexOf(':') < 0 || !EmojiManager.isInitialized()) return input;
+
+        StringBuilder sb = null;
+        int copied = 0;
+        int colon = input.indexOf(':');
+        int next;
+        while (colon >= 0 && (next = input.indexOf(':', colon + 1)) >= 0) {
+            Emoji emoji = null;
+            Fitzpatrick fitzpatrick = null;
+            int bar = aliasEnd(input, colon + 1, next);
+            if (bar > colon + 1 && (bar == next || input.charAt(bar) == '|')) {
+                emoji = EmojiManager.getForAlias(input.substring(colon + 1, bar));
+                if (bar < next) {
+                    fitzpatrick = Fitzpatrick.fromType(input.substring(bar + 1, next));
+                    if (fitzpatrick == null) {
+                        emoji = null;
                     }
-                    break;
-                case REMOVE:
-                    replacement = ":" + candidate.getEmoji().getAliases().get(0) + ":";
-                    break;
-                case IGNORE:
-                default:
-                    replacement = ":" +
-                            candidate.getEmoji().getAliases().get(0) +
-                            ":" +
-                            candidate.getFitzpatrickUnicode();
-                    break;
+                }
             }
-
-            sb.append(replacement);
-            prev = candidate.getFitzpatrickEndIndex();
+            if (emoji == null) {
+                // Not a token, but its closing colon may open the next one.
+                colon = next;
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(input.length());
+            }
+            sb.append(input, copied, colon).append(emoji.getUnicode());
+            if (fitzpatrick != null && emoji.supportsFitzpatrick()) {
+                sb.append(fitzpatrick.unicode);
+            }
+            copied = next + 1;
+            colon = input.indexOf(':', copied);
         }
-
-        return sb.append(input.substring(prev)).toString();
+        return sb == null ? input : sb.append(input, copied, input.length()).toString();
     }
 
     /**
-     * Generates a list of UnicodeCandidate found in the input string.
+     * Index of the first char in {@code [from, to)} that cannot be part of an alias, or {@code to}.
      */
-    protected static List<UnicodeCandidate> getUnicodeCandidates(String input) {
-        char[] inputCharArray = input.toCharArray();
-        List<UnicodeCandidate> candidates = new ArrayList<>();
-        UnicodeCandidate next;
-
-        for (int i = 0; (next = getNextUnicodeCandidate(inputCharArray, i)) != null;
-             i = next.getFitzpatrickEndIndex()) {
-            candidates.add(next);
+    private static int aliasEnd(String input, int from, int to) {
+        int i = from;
+        while (i < to && isAliasChar(input.charAt(i))) {
+            i++;
         }
+        return i;
+    }
 
-        return candidates;
+    private static boolean isAliasChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '+';
     }
 
     /**
-     * Finds the next UnicodeCandidate after a given starting index
+     * Scans once for the longest emoji at each position, copying the text between them. The
+     * builder is only created on the first replacement; null is returned if there was none.
      */
-    protected static UnicodeCandidate getNextUnicodeCandidate(char[] chars, int start) {
-        for (int i = start; i < chars.length; i++) {
-            int emojiEnd = EmojiManager.getEmojiEndPos(chars, i);
-
-            if (emojiEnd != -1) {
-                Emoji emoji = EmojiManager.getByUnicode(new String(chars, i, emojiEnd - i));
-                String fitzpatrickString = (emojiEnd + 2 <= chars.length) ?
-                        new String(chars, emojiEnd, 2) :
-                        null;
-                return new UnicodeCandidate(emoji, fitzpatrickString, i);
+    private static StringBuilder replace(EmojiTrie trie, String input, FitzpatrickAction fitzpatrickAction,
+                                         IntPredicate filter) {
+        StringBuilder out = null;
+        int copied = 0;
+        int i = 0;
+        int length = input.length();
+        while (i < length) {
+            if (!trie.mayStartEmoji(input.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = trie.longestMatch(input, i);
+            if (end == -1) {
+                i++;
+                continue;
+            }
+            if (!filter.test(Character.codePointAt(input, i))) {
+                i = end;
+                continue;
             }
-        }
-
-        return null;
-    }
-
-    public static class UnicodeCandidate {
-        private final Emoji emoji;
-        private final Fitzpatrick fitzpatrick;
-        private final int startIndex;
-
-        private UnicodeCandidate(Emoji emoji, String fitzpatrick, int startIndex) {
-            this.emoji = emoji;
-            this.fitzpatrick = Fitzpatrick.fromUnicode(fitzpatrick);
-            this.startIndex = startIndex;
-        }
-
-        public Emoji getEmoji() {
-            return emoji;
-        }
-
-        public boolean hasFitzpatrick() {
-            return getFitzpatrick() != null;
-        }
-
-        public Fitzpatrick getFitzpatrick() {
-            return fitzpatrick;
-        }
-
-        public String getFitzpatrickType() {
-            return hasFitzpatrick() ? fitzpatrick.name().toLowerCase() : "";
-        }
-
-        public String getFitzpatrickUnicode() {
-            return hasFitzpatrick() ? fitzpatrick.unicode : "";
-        }
-
-        public int getEmojiStartIndex() {
-            return startIndex;
-        }
 
-        public int getEmojiEndIndex() {
-            return startIndex + emoji.getUnicode().length();
+            Emoji emoji = trie.getEmoji(input, i, end);
+            Fitzpatrick fitzpatrick = end + 1 < length
+                    ? Fitzpatrick.fromChars(input.charAt(end), input.charAt(end + 1))
+                    : null;
+            if (out == null) {
+                out = new StringBuilder(input.length() + 16);
+            }
+            out.append(input, copied, i).append(':').append(emoji.getAliases().get(0));
+            switch (fitzpatrickAction) {
+                case PARSE:
+                    if (fitzpatrick != null) {
+                        out.append('|').append(fitzpatrick.type);
+                    }
+                    out.append(':');
+                    break;
+                case REMOVE:
+                    out.append(':');
+                    break;
+                case IGNORE:
+                default:
+                    out.append(':');
+                    if (fitzpatrick != null) {
+                        out.append(fitzpatrick.unicode);
+                    }
+                    break;
+            }
+            i = end + (fitzpatrick != null ? 2 : 0);
+            copied = i;
         }
-
-        public int getFitzpatrickEndIndex() {
-            return getEmojiEndIndex() + (fitzpatrick != null ? 2 : 0);
+        if (out != null) {
+            out.append(input, copied, length);
         }
+        return out;
     }
 }
@@ -1,80 +1,74 @@
 package com.irc.emoji;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 
-import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+/**
+ * Loads the emoji table compiled from emojis.json by the {@code compileEmojis} Gradle task.
+ * Until it is loaded, {@link EmojiParser} passes text through unchanged.
+ */
 @Slf4j
 @Singleton
 public class EmojiService {
-    private static final String EMOJI_JSON_PATH = "/emojis.json";
+    private static final String EMOJI_TABLE_PATH = "/emojis.bin";
+    private static final int TABLE_VERSION = 1;
 
-    private final Gson gson;
-
-    @Inject
-    public EmojiService(Gson gson) {
-        this.gson = gson;
+    /**
+     * Loads the emoji table on the given executor, keeping it off the plugin's startup path.
+     */
+    public void initializeAsync(Executor executor) {
+        if (EmojiManager.isInitialized()) {
+            return;
+        }
+        executor.execute(this::initialize);
     }
 
     public void initialize() {
+        if (EmojiManager.isInitialized()) {
+            return;
+        }
         try {
-            log.debug("Initializing emoji data");
-            loadEmojis();
-            log.debug("Successfully initialized emoji data");
-        } catch (Exception e) {
+            long start = System.nanoTime();
+            List<Emoji> emojis = loadEmojis();
+            EmojiManager.initialize(emojis);
+            log.debug("Loaded {} emojis in {} ms", emojis.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
             log.error("Failed to initialize emoji data", e);
-            throw new RuntimeException("Failed to initialize emoji data", e);
         }
     }
 
-    private void loadEmojis() throws Exception {
-        if (EmojiManager.isInitialized()) {
-            return;
-        }
-
-        try (InputStream is = EmojiManager.class.getResourceAsStream(EMOJI_JSON_PATH)) {
+    private List<Emoji> loadEmojis() throws IOException {
+        try (InputStream is = EmojiService.class.getResourceAsStream(EMOJI_TABLE_PATH)) {
             if (is == null) {
-                throw new RuntimeException("Could not find resource: " + EMOJI_JSON_PATH);
+                throw new IOException("Could not find resource: " + EMOJI_TABLE_PATH);
             }
 
-            try (Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
-                JsonArray emojiArray = gson.fromJson(reader, JsonArray.class);
-
-                if (emojiArray == null) {
-                    throw new RuntimeException("Failed to parse emoji JSON or file is empty");
-                }
-
-                for (int i = 0; i < emojiArray.size(); i++) {
-                    JsonObject emojiJson = emojiArray.get(i).getAsJsonObject();
-                    if (!emojiJson.has("emoji")) continue;
-
-                    String unicode = emojiJson.get("emoji").getAsString();
-                    boolean supportsFitzpatrick = emojiJson.has("supports_fitzpatrick") ?
-                            emojiJson.get("supports_fitzpatrick").getAsBoolean() : false;
-
-                    List<String> aliases = new ArrayList<>();
-                    if (emojiJson.has("aliases")) {
-                        JsonArray aliasesJson = emojiJson.getAsJsonArray("aliases");
-                        for (int j = 0; j < aliasesJson.size(); j++) {
-                            aliases.add(aliasesJson.get(j).getAsString());
-                        }
-                    }
-
-                    EmojiManager.register(new Emoji(unicode, aliases, supportsFitzpatrick));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+            int version = in.readInt();
+            if (version != TABLE_VERSION) {
+                throw new IOException("Unsupported emoji table version " + version);
+            }
+            int count = in.readInt();
+            List<Emoji> emojis = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String unicode = in.readUTF();
+                boolean supportsFitzpatrick = in.readBoolean();
+                int aliasCount = in.readUnsignedByte();
+                List<String> aliases = new ArrayList<>(aliasCount);
+                for (int j = 0; j < aliasCount; j++) {
+                    aliases.add(in.readUTF());
                 }
+                emojis.add(new Emoji(unicode, aliases, supportsFitzpatrick));
             }
+            return emojis;
         }
-
-        EmojiManager.finishInitialization();
     }
 }
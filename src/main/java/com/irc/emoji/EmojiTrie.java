@@ -1,121 +1,193 @@
-package com.irc.emoji;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
-public class EmojiTrie {
-    private final Node root = new Node();
-    final int maxDepth;
-
-    public EmojiTrie(Collection<Emoji> emojis) {
-        int maxDepth = 0;
-        for (Emoji emoji : emojis) {
-            Node tree = root;
-            char[] chars = emoji.getUnicode().toCharArray();
-            maxDepth = Math.max(maxDepth, chars.length);
-            for (char c : chars) {
-                if (!tree.hasChild(c)) {
-                    tree.addChild(c);
-                }
-                tree = tree.getChild(c);
-            }
-            tree.setEmoji(emoji);
-        }
-        this.maxDepth = maxDepth;
-    }
-
-    /**
-     * Checks if sequence of chars contain an emoji.
-     */
-    public Matches isEmoji(char[] sequence) {
-        return isEmoji(sequence, 0, sequence.length);
-    }
-
-    /**
-     * Checks if the sequence of chars within the given bound indices contain an emoji.
-     */
-    public Matches isEmoji(char[] sequence, int start, int end) {
-        if (start < 0 || start > end || end > sequence.length) {
-            throw new ArrayIndexOutOfBoundsException(
-                    "start " + start + ", end " + end + ", length " + sequence.length);
-        }
-        if (sequence == null) {
-            return Matches.POSSIBLY;
-        }
-        Node tree = root;
-        for (int i = start; i < end; i++) {
-            if (!tree.hasChild(sequence[i])) {
-                return Matches.IMPOSSIBLE;
-            }
-            tree = tree.getChild(sequence[i]);
-        }
-        return tree.isEndOfEmoji() ? Matches.EXACTLY : Matches.POSSIBLY;
-    }
-
-    /**
-     * Finds Emoji instance from emoji unicode
-     */
-    public Emoji getEmoji(String unicode) {
-        return getEmoji(unicode.toCharArray(), 0, unicode.length());
-    }
-
-    /**
-     * Finds Emoji instance from emoji unicode chars.
-     */
-    public Emoji getEmoji(char[] sequence, int start, int end) {
-        if (start < 0 || start > end || end > sequence.length) {
-            throw new ArrayIndexOutOfBoundsException(
-                    "start " + start + ", end " + end + ", length " + sequence.length);
-        }
-        Node tree = root;
-        for (int i = start; i < end; i++) {
-            if (!tree.hasChild(sequence[i])) {
-                return null;
-            }
-            tree = tree.getChild(sequence[i]);
-        }
-        return tree.getEmoji();
-    }
-
-    public enum Matches {
-        EXACTLY, POSSIBLY, IMPOSSIBLE;
-
-        public boolean exactMatch() {
-            return this == EXACTLY;
-        }
-
-        public boolean impossibleMatch() {
-            return this == IMPOSSIBLE;
-        }
-    }
-
-    private class Node {
-        private Map<Character, Node> children = new HashMap<>();
-        private Emoji emoji;
-
-        private void setEmoji(Emoji emoji) {
-            this.emoji = emoji;
-        }
-
-        private Emoji getEmoji() {
-            return emoji;
-        }
-
-        private boolean hasChild(char child) {
-            return children.containsKey(child);
-        }
-
-        private void addChild(char child) {
-            children.put(child, new Node());
-        }
-
-        private Node getChild(char child) {
-            return children.get(child);
-        }
-
-        private boolean isEndOfEmoji() {
-            return emoji != null;
-        }
-    }
-}
+package com.irc.emoji;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Trie over the UTF-16 chars of every emoji, flattened into arrays: node {@code n}'s children
+ * are the sorted labels {@code labels[first[n] .. first[n + 1])}, pointing at {@code targets}.
+ * A bitmap of the chars any emoji can start with rejects most text without touching the trie.
+ */
+public class EmojiTrie {
+    private static final int ROOT = 0;
+
+    // Per node, indexed by node id; first has one extra entry so first[n + 1] ends node n's edges.
+    private final int[] first;
+    private final Emoji[] emojis;
+    // Per edge, grouped by parent node and sorted by label within each group.
+    private final char[] labels;
+    private final int[] targets;
+    // One bit per char value.
+    private final long[] startChars = new long[1 << 10];
+
+    public EmojiTrie(Collection<Emoji> emojis) {
+        // Build a pointer trie first, then number its nodes breadth first into the arrays.
+        BuildNode root = new BuildNode();
+        for (Emoji emoji : emojis) {
+            String unicode = emoji.getUnicode();
+            if (unicode.isEmpty()) {
+                continue;
+            }
+            BuildNode node = root;
+            for (int i = 0; i < unicode.length(); i++) {
+                node = node.children.computeIfAbsent(unicode.charAt(i), c -> new BuildNode());
+            }
+            node.emoji = emoji;
+            char start = unicode.charAt(0);
+            startChars[start >>> 6] |= 1L << start;
+        }
+
+        List<BuildNode> nodes = new ArrayList<>();
+        nodes.add(root);
+        int edges = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            BuildNode node = nodes.get(n);
+            node.id = n;
+            edges += node.children.size();
+            nodes.addAll(node.children.values());
+        }
+
+        this.first = new int[nodes.size() + 1];
+        this.emojis = new Emoji[nodes.size()];
+        this.labels = new char[edges];
+        this.targets = new int[edges];
+        int edge = 0;
+        for (BuildNode node : nodes) {
+            first[node.id] = edge;
+            this.emojis[node.id] = node.emoji;
+            for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+                labels[edge] = child.getKey();
+                targets[edge] = child.getValue().id;
+                edge++;
+            }
+        }
+        first[nodes.size()] = edge;
+    }
+
+    /**
+     * Whether any emoji starts with this char.
+     */
+    public boolean mayStartEmoji(char c) {
+        return (startChars[c >>> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * Walks the trie once from {@code start}, remembering the last node that ends an emoji.
+     *
+     * @return the end index of the longest emoji starting at {@code start}, or -1 if none does
+     */
+    public int longestMatch(CharSequence text, int start) {
+        if (start >= text.length() || !mayStartEmoji(text.charAt(start))) {
+            return -1;
+        }
+        int best = -1;
+        int node = ROOT;
+        for (int i = start; i < text.length(); i++) {
+            node = child(node, text.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            if (emojis[node] != null) {
+                best = i + 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks if sequence of chars contain an emoji.
+     */
+    public Matches isEmoji(char[] sequence) {
+        return isEmoji(sequence, 0, sequence.length);
+    }
+
+    /**
+     * Checks if the sequence of chars within the given bound indices contain an emoji.
+     */
+    public Matches isEmoji(char[] sequence, int start, int end) {
+        if (sequence == null) {
+            return Matches.POSSIBLY;
+        }
+        int node = walk(CharBuffer.wrap(sequence), start, end);
+        if (node < 0) {
+            return Matches.IMPOSSIBLE;
+        }
+        return emojis[node] != null ? Matches.EXACTLY : Matches.POSSIBLY;
+    }
+
+    /**
+     * Finds Emoji instance from emoji unicode
+     */
+    public Emoji getEmoji(String unicode) {
+        return getEmoji(unicode, 0, unicode.length());
+    }
+
+    /**
+     * Finds Emoji instance from emoji unicode chars.
+     */
+    public Emoji getEmoji(char[] sequence, int start, int end) {
+        return getEmoji(CharBuffer.wrap(sequence), start, end);
+    }
+
+    /**
+     * Finds the Emoji spelled by {@code text[start, end)}, without copying it out.
+     */
+    public Emoji getEmoji(CharSequence text, int start, int end) {
+        int node = walk(text, start, end);
+        return node < 0 ? null : emojis[node];
+    }
+
+    private int walk(CharSequence text, int start, int end) {
+        if (start < 0 || start > end || end > text.length()) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "start " + start + ", end " + end + ", length " + text.length());
+        }
+        int node = ROOT;
+        for (int i = start; i < end && node >= 0; i++) {
+            node = child(node, text.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * Binary search of the node's sorted edge labels; -1 if there is no such child.
+     */
+    private int child(int node, char c) {
+        int lo = first[node];
+        int hi = first[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    public enum Matches {
+        EXACTLY, POSSIBLY, IMPOSSIBLE;
+
+        public boolean exactMatch() {
+            return this == EXACTLY;
+        }
+
+        public boolean impossibleMatch() {
+            return this == IMPOSSIBLE;
+        }
+    }
+
+    private static final class BuildNode {
+        private final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        private Emoji emoji;
+        private int id;
+    }
+}
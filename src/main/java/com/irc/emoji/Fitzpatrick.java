@@ -1,25 +1,49 @@
-package com.irc.emoji;
-
-public enum Fitzpatrick {
-    TYPE_1_2("\uD83C\uDFFB"),
-    TYPE_3("\uD83C\uDFFC"),
-    TYPE_4("\uD83C\uDFFD"),
-    TYPE_5("\uD83C\uDFFE"),
-    TYPE_6("\uD83C\uDFFF");
-
-    public final String unicode;
-
-    Fitzpatrick(String unicode) {
-        this.unicode = unicode;
-    }
-
-    public static Fitzpatrick fromUnicode(String unicode) {
-        if (unicode == null) return null;
-        for (Fitzpatrick f : values()) {
-            if (f.unicode.equals(unicode)) {
-                return f;
-            }
-        }
-        return null;
-    }
-}
\ No newline at end of file
+package com.irc.emoji;
+
+public enum Fitzpatrick {
+    TYPE_1_2("\uD83C\uDFFB"),
+    TYPE_3("\uD83C\uDFFC"),
+    TYPE_4("\uD83C\uDFFD"),
+    TYPE_5("\uD83C\uDFFE"),
+    TYPE_6("\uD83C\uDFFF");
+
+    private static final Fitzpatrick[] VALUES = values();
+    // Surrogate pair shared by the modifiers U+1F3FB..U+1F3FF, in the same order as the constants.
+    private static final char HIGH_SURROGATE = '\uD83C';
+    private static final char FIRST_LOW_SURROGATE = '\uDFFB';
+
+    public final String unicode;
+    // Name used in ":alias|type:" replacements.
+    final String type;
+
+    Fitzpatrick(String unicode) {
+        this.unicode = unicode;
+        this.type = name().toLowerCase();
+    }
+
+    public static Fitzpatrick fromUnicode(String unicode) {
+        if (unicode == null || unicode.length() != 2) return null;
+        return fromChars(unicode.charAt(0), unicode.charAt(1));
+    }
+
+    /**
+     * Resolves a modifier from the name used in {@code :alias|type_3:} tokens.
+     */
+    public static Fitzpatrick fromType(String type) {
+        for (Fitzpatrick f : VALUES) {
+            if (f.type.equals(type)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a modifier from its UTF-16 surrogate pair, or null if the pair is not one.
+     */
+    public static Fitzpatrick fromChars(char high, char low) {
+        int index = low - FIRST_LOW_SURROGATE;
+        if (high != HIGH_SURROGATE || index < 0 || index >= VALUES.length) return null;
+        return VALUES[index];
+    }
+}
@@ -0,0 +1,80 @@
+package com.irc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryCursorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A client that records what it would send instead of writing to a socket.
+     */
+    static class TestableIrcClient extends SimpleIrcClient {
+        final List<String> sent = new ArrayList<>();
+
+        TestableIrcClient(String nick) {
+            credentials(nick, "runelite", nick);
+            capHistorySupported = true;
+        }
+
+        @Override
+        public synchronized void sendRawLine(String line) {
+            sent.add(line);
+        }
+    }
+
+    @Test
+    public void ownMessageFollowsServerClockWhenOursRunsAhead() throws Exception {
+        checkReconnectCursor(Instant.now().minus(1, ChronoUnit.DAYS));
+    }
+
+    @Test
+    public void ownMessageFollowsServerClockWhenOursRunsBehind() throws Exception {
+        checkReconnectCursor(Instant.now().plus(1, ChronoUnit.DAYS));
+    }
+
+    private void checkReconnectCursor(Instant serverTime) throws Exception {
+        ScrollbackStore store = new ScrollbackStore(folder.newFolder(), 64L << 20);
+
+        TestableIrcClient client = new TestableIrcClient("me");
+        IrcAdapter adapter = new IrcAdapter(client, store::append);
+        client.processLine("@time=" + serverTime + " :other!u@h PRIVMSG #chan :hello");
+        adapter.sendMessage("#chan", "hi");
+
+        Instant cursor = store.lastTimestamp("#chan");
+        assertNotNull(cursor);
+        assertTrue("own line stamped " + cursor + ", server said " + serverTime,
+                Duration.between(serverTime, cursor).abs().compareTo(Duration.ofMinutes(1)) < 0);
+
+        TestableIrcClient reconnected = new TestableIrcClient("me");
+        reconnected.setHistoryCursor(store::lastTimestamp);
+        reconnected.processLine(":me!u@h JOIN #chan");
+
+        String request = null;
+        for (String line : reconnected.sent) {
+            if (line.startsWith("CHATHISTORY ")) {
+                request = line;
+            }
+        }
+        assertNotNull(request);
+        String[] parts = request.split(" ");
+        assertEquals("#chan", parts[2]);
+        assertTrue(parts[3], parts[3].startsWith("timestamp="));
+        Instant since = Instant.parse(parts[3].substring("timestamp=".length()));
+        assertEquals(cursor.truncatedTo(ChronoUnit.MILLIS), since);
+        store.close();
+    }
+}